@@ -0,0 +1,246 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.BuildTask;
+import org.gradle.testkit.runner.GradleRunner;
+
+/**
+ * Measures the wall time and the number of thrift processes of {@code compileThrift} on synthetic thrift files.
+ *
+ * <p>Every size generates that many thrift files in chains of {@code benchmark.chainLength} files, where each
+ * file includes the previous one of its chain. The following builds are measured for each size:
+ * <ul>
+ *   <li>clean: compiles everything after removing the build directory</li>
+ *   <li>noop: nothing has changed</li>
+ *   <li>leaf: changes the first file of a chain, which is included by the rest of the chain</li>
+ *   <li>root: changes the last file of a chain, which no other file includes</li>
+ *   <li>delete: removes the last file of a chain</li>
+ * </ul>
+ *
+ * <p>The results are printed and written to {@code results.csv} in the directory given as the argument.
+ */
+public final class CompileThriftBenchmark {
+
+    private static final String[] SCENARIOS = { "clean", "noop", "leaf", "root", "delete" };
+
+    public static void main(String[] args) throws Exception {
+        final File reportDir = new File(args.length > 0 ? args[0] : "build/reports/benchmark");
+        final List<Integer> sizes = new ArrayList<>();
+        for (String size : System.getProperty("benchmark.sizes", "10,100,1000").split(",")) {
+            sizes.add(Integer.parseInt(size.trim()));
+        }
+        final int iterations = Integer.getInteger("benchmark.iterations", 3);
+        final int chainLength = Integer.getInteger("benchmark.chainLength", 5);
+        final String gradleVersion = System.getProperty("benchmark.gradleVersion", "8.1");
+        // A local Gradle distribution to use instead of gradleVersion.
+        final String gradleInstallation = System.getProperty("benchmark.gradleInstallation");
+        // Additional configuration of compileThrift, e.g. "maxParallelCompilations 4".
+        final String options = System.getProperty("benchmark.options", "");
+
+        final List<String> results = new ArrayList<>();
+        results.add("files,scenario,iteration,millis,processes,outcome");
+        for (int size : sizes) {
+            final Path projectDir = Files.createTempDirectory("thrift-benchmark");
+            try {
+                final Project project = new Project(projectDir, size, chainLength);
+                project.write(options);
+                final GradleRunner runner = GradleRunner.create()
+                                                        .withProjectDir(projectDir.toFile())
+                                                        .withArguments("compileThrift", "--info")
+                                                        .withPluginClasspath();
+                if (gradleInstallation != null) {
+                    runner.withGradleInstallation(new File(gradleInstallation));
+                } else {
+                    runner.withGradleVersion(gradleVersion);
+                }
+                // Warms up the daemon and resolves the plugins.
+                runner.build();
+
+                final Map<String, List<Result>> resultsByScenario = new LinkedHashMap<>();
+                for (int i = 0; i < iterations; i++) {
+                    for (String scenario : SCENARIOS) {
+                        project.prepare(scenario);
+                        final Result result = Result.measure(runner);
+                        resultsByScenario.computeIfAbsent(scenario, unused -> new ArrayList<>()).add(result);
+                        results.add(size + "," + scenario + ',' + i + ',' + result.millis + ',' +
+                                    result.processes + ',' + result.outcome);
+                    }
+                    project.restore();
+                }
+                resultsByScenario.forEach((scenario, scenarioResults) -> System.out.printf(
+                        "%6d files %-6s median %7d ms, %5d thrift processes, %s%n",
+                        size, scenario, median(scenarioResults), scenarioResults.get(0).processes,
+                        scenarioResults.get(0).outcome));
+            } finally {
+                BenchmarkFiles.deleteDir(projectDir);
+            }
+        }
+
+        Files.createDirectories(reportDir.toPath());
+        final Path csv = reportDir.toPath().resolve("results.csv");
+        Files.write(csv, results, StandardCharsets.UTF_8);
+        System.out.println("Results: " + csv);
+    }
+
+    private static long median(List<Result> results) {
+        final List<Long> millis = new ArrayList<>();
+        results.forEach(result -> millis.add(result.millis));
+        Collections.sort(millis);
+        return millis.get(millis.size() / 2);
+    }
+
+    private static final class Project {
+
+        private final Path projectDir;
+        private final Path sourceDir;
+        private final int size;
+        private final int chainLength;
+
+        Project(Path projectDir, int size, int chainLength) {
+            this.projectDir = projectDir;
+            sourceDir = projectDir.resolve("src/main/thrift");
+            this.size = size;
+            this.chainLength = chainLength;
+        }
+
+        void write(String options) throws IOException {
+            final String thriftPath = Paths.get("lib/thrift/0.17.0/thrift." + ThriftToolchain.detectPlatform())
+                                           .toAbsolutePath().toString().replace('\\', '/');
+            Files.write(projectDir.resolve("settings.gradle"), Collections.singletonList(""));
+            Files.write(projectDir.resolve("build.gradle"), Collections.singletonList(
+                    "plugins {\n" +
+                    "    id \"com.linecorp.thrift-gradle-plugin\"\n" +
+                    "}\n" +
+                    "compileThrift {\n" +
+                    "    thriftExecutable \"" + thriftPath + "\"\n" +
+                    "    generator 'java'\n" +
+                    "    " + options + '\n' +
+                    "}"));
+            Files.createDirectories(sourceDir);
+            for (int i = 0; i < size; i++) {
+                writeSource(i);
+            }
+        }
+
+        // Makes the change of the given scenario.
+        void prepare(String scenario) throws IOException {
+            switch (scenario) {
+                case "clean":
+                    BenchmarkFiles.deleteDir(projectDir.resolve("build"));
+                    break;
+                case "noop":
+                    break;
+                case "leaf":
+                    appendStruct(0);
+                    break;
+                case "root":
+                    appendStruct(lastOfFirstChain());
+                    break;
+                case "delete":
+                    Files.delete(source(lastOfFirstChain()));
+                    break;
+                default:
+                    throw new IllegalArgumentException(scenario);
+            }
+        }
+
+        // Writes the changed files back for the next iteration.
+        void restore() throws IOException {
+            writeSource(0);
+            writeSource(lastOfFirstChain());
+        }
+
+        private int lastOfFirstChain() {
+            return Math.min(chainLength, size) - 1;
+        }
+
+        private Path source(int index) {
+            return sourceDir.resolve("file" + index + ".thrift");
+        }
+
+        private void appendStruct(int index) throws IOException {
+            Files.write(source(index),
+                        Collections.singletonList("struct Added" + index + '_' + System.nanoTime() + " {}"),
+                        StandardOpenOption.APPEND);
+        }
+
+        private void writeSource(int index) throws IOException {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("namespace java com.linecorp.thrift.plugin.benchmark\n");
+            final boolean hasParent = index % chainLength != 0;
+            if (hasParent) {
+                sb.append("include \"file").append(index - 1).append(".thrift\"\n");
+            }
+            sb.append("struct Struct").append(index).append(" {\n")
+              .append("    1: required i32 id,\n")
+              .append("    2: optional string name,\n")
+              .append("    3: optional list<string> tags,\n");
+            if (hasParent) {
+                sb.append("    4: optional file").append(index - 1).append(".Struct").append(index - 1)
+                  .append(" parent,\n");
+            }
+            sb.append("}\n")
+              .append("service Service").append(index).append(" {\n")
+              .append("    Struct").append(index).append(" get(1: i32 id),\n")
+              .append("}\n");
+            Files.write(source(index), sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static final class Result {
+
+        static Result measure(GradleRunner runner) {
+            final long start = System.nanoTime();
+            final BuildResult result = runner.build();
+            final long millis = (System.nanoTime() - start) / 1_000_000;
+            int processes = 0;
+            for (String line : result.getOutput().split("\n")) {
+                if (line.contains("Starting process 'command '") ||
+                    line.contains("Submitting thrift to the process pool.")) {
+                    processes++;
+                }
+            }
+            final BuildTask task = result.task(":compileThrift");
+            return new Result(millis, processes, task != null ? task.getOutcome().name() : "NONE");
+        }
+
+        final long millis;
+        final int processes;
+        final String outcome;
+
+        private Result(long millis, int processes, String outcome) {
+            this.millis = millis;
+            this.processes = processes;
+            this.outcome = outcome;
+        }
+    }
+}
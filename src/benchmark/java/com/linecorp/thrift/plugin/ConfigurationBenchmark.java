@@ -0,0 +1,157 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+
+/**
+ * Measures the configuration time of a multi-project build applying the plugin to every project, and checks
+ * that the plugin doesn't realize any task during configuration.
+ *
+ * <p>{@code benchmark.projects} projects apply the java plugin, and every other one depends on the thrift
+ * files of the first one. {@code help} is run with and without the plugin, and the median difference per
+ * project must not exceed {@code benchmark.maxMillisPerProject}. The tasks realized while configuring the
+ * build with the plugin are counted, and none of them may be registered by the plugin.
+ *
+ * <p>The results are printed and written to {@code configuration-results.csv} in the directory given as
+ * the argument.
+ */
+public final class ConfigurationBenchmark {
+
+    private static final String REALIZED = "Realized task ";
+
+    public static void main(String[] args) throws Exception {
+        final File reportDir = new File(args.length > 0 ? args[0] : "build/reports/benchmark");
+        final int projects = Integer.getInteger("benchmark.projects", 200);
+        final int iterations = Integer.getInteger("benchmark.iterations", 5);
+        final long maxMillisPerProject = Long.getLong("benchmark.maxMillisPerProject", 10);
+        final String gradleVersion = System.getProperty("benchmark.gradleVersion", "8.1");
+        // A local Gradle distribution to use instead of gradleVersion.
+        final String gradleInstallation = System.getProperty("benchmark.gradleInstallation");
+
+        final List<String> results = new ArrayList<>();
+        results.add("projects,plugin,iteration,millis,realizedTasks,realizedThriftTasks");
+        final long[] medians = new long[2];
+        final List<String> realizedThriftTasks = new ArrayList<>();
+        for (int plugin = 0; plugin < 2; plugin++) {
+            final Path projectDir = Files.createTempDirectory("thrift-configuration-benchmark");
+            try {
+                write(projectDir, projects, plugin == 1);
+                final GradleRunner runner = GradleRunner.create()
+                                                        .withProjectDir(projectDir.toFile())
+                                                        .withArguments("help", "--no-configuration-cache")
+                                                        .withPluginClasspath();
+                if (gradleInstallation != null) {
+                    runner.withGradleInstallation(new File(gradleInstallation));
+                } else {
+                    runner.withGradleVersion(gradleVersion);
+                }
+                // Warms up the daemon and compiles the build scripts.
+                runner.build();
+
+                final List<Long> millis = new ArrayList<>();
+                for (int i = 0; i < iterations; i++) {
+                    final long start = System.nanoTime();
+                    final BuildResult result = runner.build();
+                    millis.add((System.nanoTime() - start) / 1_000_000);
+                    final List<String> realized = new ArrayList<>();
+                    for (String line : result.getOutput().split("\n")) {
+                        if (line.startsWith(REALIZED)) {
+                            realized.add(line.substring(REALIZED.length()).trim());
+                        }
+                    }
+                    final List<String> thriftTasks = new ArrayList<>();
+                    realized.forEach(task -> {
+                        if (task.contains("Thrift")) {
+                            thriftTasks.add(task);
+                        }
+                    });
+                    realizedThriftTasks.addAll(thriftTasks);
+                    results.add(projects + "," + (plugin == 1) + ',' + i + ',' + millis.get(i) + ',' +
+                                realized.size() + ',' + thriftTasks.size());
+                }
+                Collections.sort(millis);
+                medians[plugin] = millis.get(millis.size() / 2);
+                System.out.printf("%5d projects %-14s median %6d ms%n",
+                                  projects, plugin == 1 ? "with plugin" : "without plugin", medians[plugin]);
+            } finally {
+                BenchmarkFiles.deleteDir(projectDir);
+            }
+        }
+
+        Files.createDirectories(reportDir.toPath());
+        final Path csv = reportDir.toPath().resolve("configuration-results.csv");
+        Files.write(csv, results, StandardCharsets.UTF_8);
+        System.out.println("Results: " + csv);
+
+        final double millisPerProject = (double) (medians[1] - medians[0]) / projects;
+        System.out.printf("%.2f ms per project with the plugin%n", millisPerProject);
+        if (!realizedThriftTasks.isEmpty()) {
+            throw new IllegalStateException("Tasks realized during configuration: " + realizedThriftTasks);
+        }
+        if (millisPerProject > maxMillisPerProject) {
+            throw new IllegalStateException("The plugin takes " + millisPerProject + " ms per project, but " +
+                                            maxMillisPerProject + " ms is expected at most.");
+        }
+    }
+
+    private static void write(Path projectDir, int projects, boolean plugin) throws IOException {
+        final StringBuilder settings = new StringBuilder();
+        for (int i = 0; i < projects; i++) {
+            settings.append("include 'project").append(i).append("'\n");
+            final Path dir = projectDir.resolve("project" + i);
+            Files.createDirectories(dir.resolve("src/main/thrift"));
+            final StringBuilder build = new StringBuilder();
+            build.append("plugins {\n")
+                 .append("    id 'java'\n");
+            if (plugin) {
+                build.append("    id 'com.linecorp.thrift-gradle-plugin'\n");
+            }
+            build.append("}\n");
+            if (plugin && i > 0) {
+                build.append("dependencies {\n")
+                     .append("    thriftIdl project(':project0')\n")
+                     .append("}\n");
+            }
+            Files.write(dir.resolve("build.gradle"), build.toString().getBytes(StandardCharsets.UTF_8));
+            Files.write(dir.resolve("src/main/thrift/project" + i + ".thrift"), Collections.singletonList(
+                    "namespace java com.linecorp.thrift.plugin.benchmark.project" + i + '\n' +
+                    "struct Struct" + i + " {}"));
+        }
+        Files.write(projectDir.resolve("settings.gradle"),
+                    settings.toString().getBytes(StandardCharsets.UTF_8));
+        // The plugin is resolved once for all projects, as recommended for multi-project builds.
+        // Every task created or realized from its registration is printed.
+        Files.write(projectDir.resolve("build.gradle"), Collections.singletonList(
+                "plugins {\n" +
+                "    id 'com.linecorp.thrift-gradle-plugin' apply false\n" +
+                "}\n" +
+                "allprojects {\n" +
+                "    tasks.configureEach { println '" + REALIZED + "' + it.path }\n" +
+                "}"));
+    }
+}
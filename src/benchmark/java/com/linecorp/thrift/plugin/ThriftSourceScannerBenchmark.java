@@ -0,0 +1,141 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures the throughput of {@link ThriftSourceScanner} on a synthetic tree of thrift files.
+ *
+ * <p>{@code benchmark.files} files are written in directories of 100 files, and {@code benchmark.largeFiles} of
+ * them are padded with definitions to {@code benchmark.largeFileSize} MiB. The following are measured:
+ * <ul>
+ *   <li>scan: scans the list of all files</li>
+ *   <li>scanTree: walks the tree and scans every file</li>
+ *   <li>parse: parses every file completely, which is what ignoreUnusedDefinitionChanges needs</li>
+ * </ul>
+ *
+ * <p>The throughput is given in files and in MiB of the files per second, although the scanner only reads the
+ * header of each file. The results are printed and written to {@code scan-results.csv} in the directory given
+ * as the argument.
+ */
+public final class ThriftSourceScannerBenchmark {
+
+    private static final int FILES_PER_DIRECTORY = 100;
+
+    public static void main(String[] args) throws Exception {
+        final Path reportDir = Paths.get(args.length > 0 ? args[0] : "build/reports/benchmark");
+        final int size = Integer.getInteger("benchmark.files", 10000);
+        final int largeFiles = Integer.getInteger("benchmark.largeFiles", 10);
+        final int largeFileSize = Integer.getInteger("benchmark.largeFileSize", 8);
+        final int iterations = Integer.getInteger("benchmark.iterations", 5);
+
+        final List<String> results = new ArrayList<>();
+        results.add("files,bytes,method,iteration,millis");
+        final Path root = Files.createTempDirectory("thrift-scan-benchmark");
+        try {
+            final List<Path> files = write(root, size, largeFiles, largeFileSize * 1024 * 1024);
+            long bytes = 0;
+            for (Path file : files) {
+                bytes += Files.size(file);
+            }
+            for (String method : new String[] { "scan", "scanTree", "parse" }) {
+                // The first run warms up the JIT and the page cache.
+                run(method, root, files);
+                final List<Long> millis = new ArrayList<>();
+                for (int i = 0; i < iterations; i++) {
+                    final long start = System.nanoTime();
+                    run(method, root, files);
+                    millis.add((System.nanoTime() - start) / 1_000_000);
+                    results.add(size + "," + bytes + ',' + method + ',' + i + ',' + millis.get(i));
+                }
+                Collections.sort(millis);
+                final double seconds = Math.max(millis.get(millis.size() / 2), 1) / 1000.0;
+                System.out.printf("%6d files %-8s median %6.0f ms, %9.0f files/s, %8.0f MiB/s%n",
+                                  size, method, seconds * 1000, size / seconds,
+                                  bytes / (1024.0 * 1024.0) / seconds);
+            }
+        } finally {
+            BenchmarkFiles.deleteDir(root);
+        }
+
+        Files.createDirectories(reportDir);
+        final Path csv = reportDir.resolve("scan-results.csv");
+        Files.write(csv, results, StandardCharsets.UTF_8);
+        System.out.println("Results: " + csv);
+    }
+
+    private static void run(String method, Path root, List<Path> files) {
+        final int scanned;
+        switch (method) {
+            case "scan":
+                scanned = ThriftSourceScanner.scan(files).size();
+                break;
+            case "scanTree":
+                scanned = ThriftSourceScanner.scanTree(root).size();
+                break;
+            case "parse":
+                files.parallelStream().forEach(file -> IdlParser.parse(file.toFile()));
+                scanned = files.size();
+                break;
+            default:
+                throw new IllegalArgumentException(method);
+        }
+        if (scanned != files.size()) {
+            throw new IllegalStateException("Scanned " + scanned + " files, but " + files.size() +
+                                            " are expected.");
+        }
+    }
+
+    private static List<Path> write(Path root, int size, int largeFiles, int largeFileSize) throws IOException {
+        final List<Path> files = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final Path dir = root.resolve("dir" + i / FILES_PER_DIRECTORY);
+            Files.createDirectories(dir);
+            final StringBuilder sb = new StringBuilder();
+            sb.append("/*\n * File ").append(i).append(".\n */\n")
+              .append("namespace java com.linecorp.thrift.plugin.benchmark.dir").append(i / FILES_PER_DIRECTORY)
+              .append('\n')
+              .append("namespace py benchmark.dir").append(i / FILES_PER_DIRECTORY).append('\n');
+            if (i > 0) {
+                sb.append("include \"../dir").append((i - 1) / FILES_PER_DIRECTORY)
+                  .append("/file").append(i - 1).append(".thrift\"\n");
+            }
+            // Spreads the large files over the tree.
+            final boolean large = largeFiles > 0 && i % Math.max(size / largeFiles, 1) == 0 &&
+                                  i / Math.max(size / largeFiles, 1) < largeFiles;
+            int struct = 0;
+            do {
+                sb.append("struct Struct").append(struct++).append(" {\n")
+                  .append("    1: required i32 id,\n")
+                  .append("    2: optional string name,\n")
+                  .append("}\n");
+            } while (large && sb.length() < largeFileSize);
+            final Path file = dir.resolve("file" + i + ".thrift");
+            Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+            files.add(file);
+        }
+        return files;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects what happened to every source compiled by a {@link CompileThrift} execution,
+ * and writes it as JSON and CSV.
+ */
+final class CompilationReport {
+
+    /**
+     * Writes the result of an execution of thrift, for a work action to pass it to the task.
+     */
+    static void writeExecution(File resultFile, long wallTimeMillis, int exitCode) {
+        try {
+            Files.write(resultFile.toPath(),
+                        (wallTimeMillis + " " + exitCode).getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    void executed(String source, List<String> commandLine, long wallTimeMillis, int exitCode) {
+        final Entry entry = entry(source);
+        entry.commandLine = commandLine;
+        entry.wallTimeMillis = wallTimeMillis;
+        entry.exitCode = exitCode;
+    }
+
+    /**
+     * Reads the result written by {@link #writeExecution(File, long, int)}, if the source has been compiled.
+     * Returns whether it has been.
+     */
+    boolean readExecution(String source, List<String> commandLine, File resultFile) {
+        if (!resultFile.isFile()) {
+            return false;
+        }
+        try {
+            final String[] result = new String(Files.readAllBytes(resultFile.toPath()),
+                                               StandardCharsets.US_ASCII).split(" ");
+            executed(source, commandLine, Long.parseLong(result[0]), Integer.parseInt(result[1]));
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void problems(String source, List<ThriftProblem> problems) {
+        entry(source).problems = problems;
+    }
+
+    void generated(String source, File outputDir, Collection<String> files) {
+        final Entry entry = entry(source);
+        entry.generatedFiles = files.size();
+        entry.generatedBytes = 0;
+        files.forEach(file -> entry.generatedBytes += new File(outputDir, file).length());
+    }
+
+    List<ThriftCompilation> compilations(String taskPath) {
+        final List<ThriftCompilation> compilations = new ArrayList<>(entries.size());
+        entries.forEach((source, entry) -> {
+            if (entry.commandLine != null) {
+                compilations.add(new ThriftCompilation(taskPath, source, entry.commandLine,
+                                                       entry.wallTimeMillis, entry.exitCode,
+                                                       entry.generatedFiles, entry.generatedBytes,
+                                                       entry.problems));
+            }
+        });
+        return compilations;
+    }
+
+    private Entry entry(String source) {
+        return entries.computeIfAbsent(source, unused -> new Entry());
+    }
+
+    static String summary(List<ThriftCompilation> compilations, int slowest) {
+        long wallTimeMillis = 0;
+        int generatedFiles = 0;
+        long generatedBytes = 0;
+        for (ThriftCompilation compilation : compilations) {
+            wallTimeMillis += compilation.getWallTimeMillis();
+            generatedFiles += compilation.getGeneratedFiles();
+            generatedBytes += compilation.getGeneratedBytes();
+        }
+        final List<ThriftCompilation> sorted = new ArrayList<>(compilations);
+        sorted.sort(Comparator.comparingLong(ThriftCompilation::getWallTimeMillis).reversed());
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Ran thrift ").append(compilations.size()).append(" times for ").append(wallTimeMillis)
+          .append(" ms in total, generating ").append(generatedFiles).append(" files of ")
+          .append(generatedBytes).append(" bytes. Slowest:");
+        sorted.subList(0, Math.min(slowest, sorted.size()))
+              .forEach(compilation -> sb.append("\n  ").append(compilation));
+        return sb.toString();
+    }
+
+    static void writeJson(File file, List<ThriftCompilation> compilations) {
+        final StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < compilations.size(); i++) {
+            final ThriftCompilation compilation = compilations.get(i);
+            sb.append(i == 0 ? "\n" : ",\n")
+              .append("  {\"task\": ").append(jsonString(compilation.getTaskPath()))
+              .append(", \"source\": ").append(jsonString(compilation.getSource()))
+              .append(", \"commandLine\": [");
+            final List<String> commandLine = compilation.getCommandLine();
+            for (int j = 0; j < commandLine.size(); j++) {
+                sb.append(j == 0 ? "" : ", ").append(jsonString(commandLine.get(j)));
+            }
+            sb.append("], \"wallTimeMillis\": ").append(compilation.getWallTimeMillis())
+              .append(", \"exitCode\": ").append(compilation.getExitCode())
+              .append(", \"generatedFiles\": ").append(compilation.getGeneratedFiles())
+              .append(", \"generatedBytes\": ").append(compilation.getGeneratedBytes())
+              .append(", \"problems\": [");
+            final List<ThriftProblem> problems = compilation.getProblems();
+            for (int j = 0; j < problems.size(); j++) {
+                final ThriftProblem problem = problems.get(j);
+                sb.append(j == 0 ? "" : ", ")
+                  .append("{\"severity\": ").append(jsonString(problem.getSeverity().name()))
+                  .append(", \"file\": ").append(jsonString(problem.getFile()))
+                  .append(", \"line\": ").append(problem.getLine())
+                  .append(", \"message\": ").append(jsonString(problem.getMessage()))
+                  .append('}');
+            }
+            sb.append("]}");
+        }
+        sb.append("\n]\n");
+        write(file, sb.toString());
+    }
+
+    static void writeCsv(File file, List<ThriftCompilation> compilations) {
+        final StringBuilder sb = new StringBuilder(
+                "task,source,commandLine,wallTimeMillis,exitCode,generatedFiles,generatedBytes,problems\n");
+        for (ThriftCompilation compilation : compilations) {
+            sb.append(csvString(compilation.getTaskPath())).append(',')
+              .append(csvString(compilation.getSource())).append(',')
+              .append(csvString(String.join(" ", compilation.getCommandLine()))).append(',')
+              .append(compilation.getWallTimeMillis()).append(',')
+              .append(compilation.getExitCode()).append(',')
+              .append(compilation.getGeneratedFiles()).append(',')
+              .append(compilation.getGeneratedBytes()).append(',')
+              .append(compilation.getProblems().size()).append('\n');
+        }
+        write(file, sb.toString());
+    }
+
+    private static String jsonString(String value) {
+        final StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String csvString(String value) {
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static void write(File file, String content) {
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Entry {
+        List<String> commandLine;
+        long wallTimeMillis;
+        int exitCode;
+        int generatedFiles;
+        long generatedBytes;
+        List<ThriftProblem> problems = Collections.emptyList();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.linecorp.thrift.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * What {@link CompileThrift} remembers between executions to compile incrementally.
+ */
+final class CompilationState implements Serializable {
+
+    private static final long serialVersionUID = 4L;
+
+    private static final String FILE_NAME = "compilation-state.bin";
+
+    /**
+     * Returns the state stored by {@link #write(File)}, or {@code null} if there's no usable one.
+     */
+    static CompilationState read(File stateDir) {
+        final File file = new File(stateDir, FILE_NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(file.toPath());
+             ObjectInputStream objectIn = new ObjectInputStream(in)) {
+            return (CompilationState) objectIn.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    static void delete(File stateDir) {
+        final File file = new File(stateDir, FILE_NAME);
+        if (file.exists() && !file.delete()) {
+            throw new UncheckedIOException(new IOException("Could not delete " + file));
+        }
+    }
+
+    private final IncludeGraph includeGraph;
+
+    private final OutputManifest outputs;
+
+    private final SourceDigests sourceDigests;
+
+    // Only with ignoreUnusedDefinitionChanges.
+    private final DefinitionIndex definitionIndex;
+
+    // Canonical paths of all sources, sorted.
+    private final TreeSet<String> sources;
+
+    CompilationState(IncludeGraph includeGraph, OutputManifest outputs, SourceDigests sourceDigests,
+                     DefinitionIndex definitionIndex, Set<String> sources) {
+        this.includeGraph = includeGraph;
+        this.outputs = outputs;
+        this.sourceDigests = sourceDigests;
+        this.definitionIndex = definitionIndex;
+        this.sources = new TreeSet<>(sources);
+    }
+
+    IncludeGraph includeGraph() {
+        return includeGraph;
+    }
+
+    OutputManifest outputs() {
+        return outputs;
+    }
+
+    SourceDigests sourceDigests() {
+        return sourceDigests;
+    }
+
+    DefinitionIndex definitionIndex() {
+        return definitionIndex;
+    }
+
+    Set<String> sources() {
+        return sources;
+    }
+
+    void write(File stateDir) {
+        try {
+            Files.createDirectories(stateDir.toPath());
+            try (OutputStream out = Files.newOutputStream(new File(stateDir, FILE_NAME).toPath());
+                 ObjectOutputStream objectOut = new ObjectOutputStream(out)) {
+                objectOut.writeObject(this);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
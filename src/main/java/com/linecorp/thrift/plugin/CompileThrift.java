@@ -21,12 +21,21 @@ package com.linecorp.thrift.plugin;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 
@@ -35,13 +44,29 @@ import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.FileSystemLocation;
+import org.gradle.api.file.FileType;
+import org.gradle.api.file.ProjectLayout;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.logging.Logger;
 import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.ProviderFactory;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.LocalState;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.process.ExecOperations;
 import org.gradle.process.ExecResult;
@@ -49,25 +74,48 @@ import org.gradle.work.ChangeType;
 import org.gradle.work.FileChange;
 import org.gradle.work.Incremental;
 import org.gradle.work.InputChanges;
+import org.gradle.work.NormalizeLineEndings;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutionException;
+import org.gradle.workers.WorkerExecutor;
 
+@CacheableTask
 public abstract class CompileThrift extends DefaultTask {
 
     // Forked from https://github.com/jruyi/thrift-gradle-plugin/blob/aef83035ffe141b0507f5a2254aa1f7193976c4a/src/main/groovy/org/jruyi/gradle/thrift/plugin/CompileThrift.groovy
 
-    @Incremental
-    @InputFiles
+    // The thrift files in it are the input, see getThriftSources().
+    @Internal
     public abstract ConfigurableFileCollection getSourceItems();
 
     @OutputDirectory
     public abstract DirectoryProperty getOutputDir();
 
-    @InputFiles
+    // Only the files included by the sources are the input, see getIncludedFiles().
+    @Internal
     public abstract ConfigurableFileCollection getIncludeDirs();
 
-    @Input
-    @Optional
+    // The include directories whose code is generated by other projects, which have to be in includeDirs too.
+    @Internal
+    public abstract ConfigurableFileCollection getProvidedIncludeDirs();
+
+    // The location of the executable is not an input, its content is. See getThriftExecutableFile().
+    @Internal
     public abstract Property<String> getThriftExecutable();
 
+    // The compiler resolved from a toolchain, which is used instead of thriftExecutable if it's not empty.
+    // Its content is the input as well.
+    @Internal
+    public abstract ConfigurableFileCollection getThriftCompiler();
+
+    // The expected SHA-256 of thriftCompiler, if any.
+    @Internal
+    public abstract Property<String> getThriftCompilerChecksum();
+
+    // Where thriftCompiler is installed as an executable, shared by all builds.
+    @Internal
+    public abstract DirectoryProperty getToolchainCacheDir();
+
     @Input
     @Optional
     public abstract Property<Boolean> getCreateGenFolder();
@@ -92,89 +140,718 @@ public abstract class CompileThrift extends DefaultTask {
     @Optional
     public abstract Property<Boolean> getVerbose();
 
+    @Input
+    @Optional
+    public abstract Property<Boolean> getBatch();
+
     @Input
     public abstract MapProperty<String, String> getGenerators();
 
+    @Internal
+    public abstract Property<Integer> getMaxParallelCompilations();
+
+    // Whether to stop at the first source which failed to compile, when they are compiled one by one.
+    @Internal
+    public abstract Property<Boolean> getFailFast();
+
+    // Where the timing of every thrift execution is reported, which is not an output of the compilation.
+    @Internal
+    public abstract DirectoryProperty getReportDir();
+
+    // Where the output of every thrift execution is written, which is logged at info level only.
+    @Internal
+    public abstract DirectoryProperty getLogDir();
+
+    @Internal
+    public abstract Property<ThriftMetricsService> getMetricsService();
+
+    // Only affects the timestamps of the outputs, not their content.
+    @Internal
+    public abstract Property<Boolean> getUseProcessPool();
+
+    @Internal
+    public abstract Property<ThriftProcessPool> getProcessPool();
+
+    @Internal
+    public abstract Property<Boolean> getPreserveUnchangedOutputs();
+
+    // Comments other than doc comments don't affect the outputs.
+    @Internal
+    public abstract Property<Boolean> getIgnoreCommentChanges();
+
+    // The definitions which a file doesn't use don't affect its outputs.
+    @Internal
+    public abstract Property<Boolean> getIgnoreUnusedDefinitionChanges();
+
     @Inject
     public abstract ExecOperations getExecOperations();
 
+    @Inject
+    public abstract WorkerExecutor getWorkerExecutor();
+
     @Inject
     public abstract ObjectFactory getObjectFactory();
 
+    @Inject
+    public abstract ProjectLayout getProjectLayout();
+
+    @Inject
+    public abstract ProviderFactory getProviderFactory();
+
+    // The directories are walked only once, when Gradle fingerprints the inputs.
+    // The task takes the files from the input changes instead of walking them again.
+    // Skips the task as NO-SOURCE when there are no thrift files. It makes the property incremental as well.
+    @SkipWhenEmpty
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    @IgnoreEmptyDirectories
+    @NormalizeLineEndings
+    public FileCollection getThriftSources() {
+        return thriftSources;
+    }
+
+    // The files of includeDirs which the sources include directly or transitively, so that the other files
+    // of large shared include directories don't affect the task.
+    @Incremental
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    @IgnoreEmptyDirectories
+    @NormalizeLineEndings
+    public FileCollection getIncludedFiles() {
+        return includedFiles;
+    }
+
+    // The included files which are provided by other projects. Their changes are taken from includedFiles.
+    @Incremental
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    @IgnoreEmptyDirectories
+    @NormalizeLineEndings
+    public FileCollection getProvidedIncludedFiles() {
+        return providedIncludedFiles;
+    }
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    @Optional
+    public Provider<RegularFile> getThriftExecutableFile() {
+        final File projectDir = getProjectLayout().getProjectDirectory().getAsFile();
+        final Provider<String> path = getProviderFactory().environmentVariable("PATH").orElse("");
+        // PATH is only looked up without a toolchain.
+        final Provider<RegularFile> compiler =
+                getProjectLayout().file(getThriftCompiler().getElements().map(CompileThrift::singleFile));
+        return compiler.orElse(getProjectLayout().file(getThriftExecutable().orElse("thrift").flatMap(
+                executable -> path.map(searchPath -> findExecutable(projectDir, executable, searchPath)))));
+    }
+
+    private static File singleFile(Set<FileSystemLocation> locations) {
+        if (locations.size() > 1) {
+            throw new GradleException("Expected a single thrift compiler but found " + locations.size() + ": " +
+                                      locations);
+        }
+        return locations.isEmpty() ? null : locations.iterator().next().getAsFile();
+    }
+
+    // Bookkeeping for incremental compilation. Gradle removes it when the outputs are loaded from the
+    // build cache, and the next incremental execution then falls back to compiling everything.
+    @LocalState
+    public File getStateDir() {
+        return new File(getTemporaryDir(), "state");
+    }
+
+    // The thrift files of sourceItems.
+    private final ConfigurableFileCollection thriftSources;
+
+    private final FileCollection includedFiles;
+    private final FileCollection providedIncludedFiles;
+
+    private transient CompilationReport report;
+
+    // Resolved once per execution, not to resolve the properties again for every source.
+    private transient ThriftInvocation invocation;
+    private transient File logDir;
+    private transient Path canonicalProjectDir;
+
+    public CompileThrift() {
+        final ObjectFactory objects = getObjectFactory();
+        thriftSources = objects.fileCollection().from(getSourceItems().getElements().map(sourceItems -> {
+            final List<Object> files = new ArrayList<>();
+            for (FileSystemLocation sourceItem : sourceItems) {
+                final File file = sourceItem.getAsFile();
+                if (file.isDirectory()) {
+                    files.add(objects.fileTree().from(file)
+                                     .matching(patterns -> patterns.include("**/*.thrift")));
+                } else {
+                    // A file given explicitly is a source whatever its name is.
+                    files.add(file);
+                }
+            }
+            return files;
+        }));
+        final IncludeClosure includeClosure = new IncludeClosure(thriftSources, getIncludeDirs());
+        includedFiles = getIncludeDirs().getAsFileTree().matching(patterns -> patterns.include(includeClosure));
+        providedIncludedFiles = getProvidedIncludeDirs().getAsFileTree().matching(
+                patterns -> patterns.include(includeClosure));
+    }
+
     @TaskAction
     void compileThrift(InputChanges inputs) {
-        if (!inputs.isIncremental()) {
-            compileAll();
-            return;
+        report = new CompilationReport();
+        invocation = createInvocation();
+        logDir = getLogDir().getAsFile().getOrElse(new File(getTemporaryDir(), "logs"));
+        canonicalProjectDir = Paths.get(IncludeGraph.canonicalPath(
+                getProjectLayout().getProjectDirectory().getAsFile()));
+        try {
+            compileThriftIncrementally(inputs);
+        } finally {
+            reportCompilations();
         }
+    }
 
-        final List<File> changedFiles = new ArrayList<>();
-        final Iterable<FileChange> fileChanges = inputs.getFileChanges(getSourceItems());
-        for (FileChange change : fileChanges) {
-            if (change.getChangeType() == ChangeType.REMOVED) {
-                compileAll();
-                return;
-            }
-            if (change.getFile().getName().endsWith(".thrift")) {
-                changedFiles.add(change.getFile());
-            }
+    private void compileThriftIncrementally(InputChanges inputs) {
+        final File stateDir = getStateDir();
+        final CompilationState previousState = CompilationState.read(stateDir);
+        // Remove the state first so that a failed compilation leads to a full compilation next time.
+        CompilationState.delete(stateDir);
+
+        final CompilationState state;
+        if (previousState == null || !inputs.isIncremental() ||
+            previousState.sourceDigests().ignoresComments() != getIgnoreCommentChanges().getOrElse(false) ||
+            (previousState.definitionIndex() != null) != indexesDefinitions()) {
+            state = compileAll(inputs, previousState != null ? previousState.outputs() : null);
+        } else {
+            state = compileChanges(inputs, previousState);
         }
+        state.write(stateDir);
+    }
 
+    CompilationState compileChanges(InputChanges inputs, CompilationState state) {
+        final IncludeGraph includeGraph = state.includeGraph();
+        final OutputManifest outputs = state.outputs();
+        final SourceDigests sourceDigests = state.sourceDigests();
+        final DefinitionIndex definitionIndex = state.definitionIndex();
+        final Set<String> allSources = state.sources();
         final File outputDirFile = getOutputDir().getAsFile().get();
         if (!outputDirFile.exists() && !outputDirFile.mkdirs()) {
             throw new GradleException(
                     "Could not create thrift output directory: " + outputDirFile.getAbsolutePath());
         }
 
-        changedFiles.forEach(changedFile -> {
-            compile(changedFile.getAbsolutePath());
-        });
+        // Canonical path of a changed file -> its changed definitions.
+        final Map<String, Set<String>> changedDefinitions = new LinkedHashMap<>();
+        final List<File> unchangedFiles = new ArrayList<>();
+        for (FileChange change : inputs.getFileChanges(getThriftSources())) {
+            if (change.getFileType() == FileType.DIRECTORY) {
+                continue;
+            }
+            final String path = IncludeGraph.canonicalPath(change.getFile());
+            if (change.getChangeType() == ChangeType.REMOVED) {
+                allSources.remove(path);
+            } else {
+                allSources.add(path);
+            }
+            if (!sourceDigests.update(change.getFile())) {
+                unchangedFiles.add(change.getFile());
+                continue;
+            }
+            changedDefinitions.put(path, index(change.getFile(), includeGraph, definitionIndex));
+            if (change.getChangeType() == ChangeType.REMOVED) {
+                // Only the files generated from the removed source alone.
+                OutputManifest.delete(outputDirFile, outputs.remove(path));
+            }
+        }
+        // Files in the include directories are not compiled by themselves,
+        // but the sources including them have to be.
+        for (FileChange change : inputs.getFileChanges(getIncludedFiles())) {
+            if (change.getFileType() != FileType.DIRECTORY) {
+                if (!sourceDigests.update(change.getFile())) {
+                    unchangedFiles.add(change.getFile());
+                    continue;
+                }
+                changedDefinitions.put(IncludeGraph.canonicalPath(change.getFile()),
+                                       index(change.getFile(), includeGraph, definitionIndex));
+            }
+        }
+
+        if (!unchangedFiles.isEmpty()) {
+            getLogger().info("Skipping {} thrift files without effective changes: {}",
+                             unchangedFiles.size(), unchangedFiles);
+        }
+
+        final Set<String> changedFiles = changedDefinitions.keySet();
+        final List<File> includeDirs = includeDirs();
+        final Set<String> affectedFiles = includeGraph.withDependents(changedFiles, includeDirs);
+        if (definitionIndex != null) {
+            final Set<String> users = definitionIndex.withUsers(changedDefinitions, includeGraph, includeDirs);
+            final Set<String> unaffectedSources = new TreeSet<>(affectedFiles);
+            unaffectedSources.removeAll(users);
+            unaffectedSources.retainAll(allSources);
+            if (!unaffectedSources.isEmpty()) {
+                getLogger().info("Skipping {} thrift files which don't use the changed definitions {}: {}",
+                                 unaffectedSources.size(), changedDefinitions, unaffectedSources);
+            }
+            affectedFiles.retainAll(users);
+        }
+        final List<String> sources = new ArrayList<>();
+        if (getBatch().getOrElse(false)) {
+            // A root generates the code of everything it includes. A source which became a root has
+            // to be compiled as well, e.g. when the only source including it was removed.
+            for (String root : includeGraph.roots(allSources, includeDirs)) {
+                final String path = IncludeGraph.canonicalPath(new File(root));
+                if (!outputs.contains(path) ||
+                    includeGraph.withIncludes(Collections.singleton(path), includeDirs).stream()
+                                .anyMatch(affectedFiles::contains)) {
+                    sources.add(root);
+                }
+            }
+        } else {
+            allSources.forEach(source -> {
+                if (affectedFiles.contains(source)) {
+                    sources.add(source);
+                }
+            });
+        }
+        if (sources.size() > changedFiles.size()) {
+            getLogger().info("Compiling {} thrift files affected by changes in {}",
+                             sources.size(), changedFiles);
+        }
+        compileSources(sources, outputs, includeGraph);
+        return state;
     }
 
-    void compileAll() {
+    CompilationState compileAll(InputChanges inputs, OutputManifest previousOutputs) {
         final File outputDirFile = getOutputDir().getAsFile().get();
+        final boolean preserveUnchangedOutputs = getPreserveUnchangedOutputs().getOrElse(false);
+        final boolean predictable = JavaOutputs.predictable(getGenerators().get());
         // Using same method of File#deleteDir in groovy.
-        if (!ResourceGroovyMethods.deleteDir(outputDirFile)) {
+        if (!preserveUnchangedOutputs && !predictable && !ResourceGroovyMethods.deleteDir(outputDirFile)) {
             throw new GradleException(
                     "Could not delete thrift output directory: " + outputDirFile.getAbsolutePath());
         }
 
-        if (!outputDirFile.mkdirs()) {
+        if (!outputDirFile.exists() && !outputDirFile.mkdirs()) {
             throw new GradleException(
                     "Could not create thrift output directory: " + outputDirFile.getAbsolutePath());
         }
 
-        // expand all items.
-        final Set<String> resolvedSourceItems = new HashSet<>();
-        getSourceItems().forEach(sourceItem -> {
-            if (sourceItem.isFile()) {
-                resolvedSourceItems.add(sourceItem.getAbsolutePath());
-            } else if (sourceItem.isDirectory()) {
-                try {
-                    getObjectFactory().fileTree().from(sourceItem.getCanonicalPath()).matching(files -> {
-                        files.include("**/*.thrift");
-                    }).forEach(file -> resolvedSourceItems.add(file.getAbsolutePath()));
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
+        warnIgnoredSourceItems();
+        // Sorted to compile in the same order every time.
+        final Set<String> resolvedSourceItems = new TreeSet<>();
+        final List<File> indexedFiles = new ArrayList<>();
+        if (inputs.isIncremental()) {
+            // There's no usable state of the previous execution, e.g. it failed.
+            getThriftSources().forEach(file -> resolvedSourceItems.add(IncludeGraph.canonicalPath(file)));
+            getIncludedFiles().forEach(indexedFiles::add);
+        } else {
+            // Gradle reports every input file as added when the execution is not incremental.
+            for (FileChange change : inputs.getFileChanges(getThriftSources())) {
+                if (change.getFileType() == FileType.FILE) {
+                    resolvedSourceItems.add(IncludeGraph.canonicalPath(change.getFile()));
                 }
-            } else if (!sourceItem.exists()) {
+            }
+            for (FileChange change : inputs.getFileChanges(getIncludedFiles())) {
+                if (change.getFileType() == FileType.FILE) {
+                    indexedFiles.add(change.getFile());
+                }
+            }
+        }
+
+        getLogger().info("Items to be generated for: {}", resolvedSourceItems);
+
+        resolvedSourceItems.forEach(source -> indexedFiles.add(new File(source)));
+        final IncludeGraph includeGraph = new IncludeGraph();
+        final DefinitionIndex definitionIndex;
+        if (indexesDefinitions()) {
+            definitionIndex = new DefinitionIndex();
+            indexedFiles.forEach(file -> index(file, includeGraph, definitionIndex));
+        } else {
+            definitionIndex = null;
+            final List<Path> paths = new ArrayList<>(indexedFiles.size());
+            indexedFiles.forEach(file -> paths.add(file.toPath()));
+            ThriftSourceScanner.scan(paths).forEach(
+                    (path, header) -> includeGraph.update(path.toFile(), header.getIncludes()));
+        }
+        final SourceDigests sourceDigests =
+                SourceDigests.build(indexedFiles, getIgnoreCommentChanges().getOrElse(false));
+
+        final Collection<String> sources;
+        if (getBatch().getOrElse(false)) {
+            sources = includeGraph.roots(resolvedSourceItems, includeDirs());
+            getLogger().info("Compiling {} root thrift files for {} sources: {}",
+                             sources.size(), resolvedSourceItems.size(), sources);
+        } else {
+            sources = resolvedSourceItems;
+        }
+
+        if (!preserveUnchangedOutputs && predictable) {
+            removeOrphans(outputDirFile, sources, includeGraph);
+        }
+
+        // Gradle cleans the output directory before a non-incremental execution,
+        // so the previous outputs are needed to tell which files are unchanged.
+        final OutputManifest outputs = new OutputManifest(previousOutputs);
+        compileSources(sources, outputs, includeGraph);
+        outputs.retainVersions();
+        if (preserveUnchangedOutputs) {
+            // Everything not generated this time is left over from before.
+            final Set<String> staleFiles = OutputManifest.snapshot(outputDirFile).keySet();
+            staleFiles.removeAll(outputs.files());
+            OutputManifest.delete(outputDirFile, staleFiles);
+        }
+        return new CompilationState(includeGraph, outputs, sourceDigests, definitionIndex, resolvedSourceItems);
+    }
+
+    // Everything is generated again, so only the files which none of the sources generates are removed
+    // instead of the whole output directory.
+    private void removeOrphans(File outputDirFile, Collection<String> sources, IncludeGraph includeGraph) {
+        final Collection<String> generatingFiles;
+        if (recursive()) {
+            final List<String> providedDirs = providedDirs();
+            generatingFiles = includeGraph.withIncludes(sources, includeDirs());
+            generatingFiles.removeIf(path -> providedDirs.stream().anyMatch(path::startsWith));
+        } else {
+            generatingFiles = sources;
+        }
+        final Set<String> orphans = OutputManifest.snapshot(outputDirFile).keySet();
+        orphans.removeAll(JavaOutputs.of(generatingFiles, getCreateGenFolder().getOrElse(true)));
+        if (!orphans.isEmpty()) {
+            getLogger().info("Removing {} files which no thrift file generates: {}",
+                             orphans.size(), new TreeSet<>(orphans));
+            OutputManifest.delete(outputDirFile, orphans);
+        }
+    }
+
+    // A file compiled with -r generates the code of the files it includes as well,
+    // which have to be generated again even if it doesn't use their changed definitions.
+    private boolean indexesDefinitions() {
+        return getIgnoreUnusedDefinitionChanges().getOrElse(false) && !recursive() &&
+               !getBatch().getOrElse(false);
+    }
+
+    // Reads the given file once for both indexes, and returns its changed definitions.
+    // Only its header is read without the definition index.
+    private static Set<String> index(File file, IncludeGraph includeGraph, DefinitionIndex definitionIndex) {
+        if (definitionIndex == null) {
+            try {
+                includeGraph.update(file, file.isFile() ? ThriftSourceScanner.scan(file.toPath()).getIncludes()
+                                                        : null);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return Collections.emptySet();
+        }
+        final IdlDocument document = file.isFile() ? IdlParser.parse(file) : null;
+        includeGraph.update(file, document != null ? document.includes() : null);
+        return definitionIndex.update(file, document);
+    }
+
+    private void warnIgnoredSourceItems() {
+        getSourceItems().forEach(sourceItem -> {
+            if (!sourceItem.exists()) {
                 getLogger().warn("Could not find {}. Will ignore it", sourceItem);
-            } else {
+            } else if (!sourceItem.isFile() && !sourceItem.isDirectory()) {
                 getLogger().warn("Unable to handle {}. Will ignore it", sourceItem);
             }
         });
+    }
 
-        getLogger().info("Items to be generated for: {}", resolvedSourceItems);
+    private List<File> includeDirs() {
+        return invocation.includeDirs();
+    }
+
+    void compileSources(Collection<String> sources, OutputManifest outputs, IncludeGraph includeGraph) {
+        if (recursive() && !getProvidedIncludeDirs().isEmpty()) {
+            sources = withLocalIncludes(sources, includeGraph);
+        }
+        final int maxParallelCompilations = getMaxParallelCompilations().getOrElse(1);
+        final boolean parallel = maxParallelCompilations > 1 && sources.size() > 1;
+        final boolean pooled = getUseProcessPool().getOrElse(false) && getProcessPool().isPresent();
+        // The description of each source which failed to compile.
+        final Map<String, String> failures = new LinkedHashMap<>();
+        compileStaged(sources, outputs, parallel ? Math.min(maxParallelCompilations, sources.size()) : 1,
+                      pooled, includeGraph, failures);
+        ThriftCompilationException.check(failures);
+    }
+
+    private boolean recursive() {
+        return getRecurse().getOrElse(false) || getBatch().getOrElse(false);
+    }
 
-        resolvedSourceItems.forEach(this::compile);
+    // Thrift can't be told to skip some of the included files with -r, so the included files which are not
+    // provided by other projects are compiled one by one instead.
+    private Collection<String> withLocalIncludes(Collection<String> sources, IncludeGraph includeGraph) {
+        final List<String> providedDirs = providedDirs();
+        final Set<String> files = new TreeSet<>();
+        final Set<String> provided = new TreeSet<>();
+        for (String path : includeGraph.withIncludes(sources, includeDirs())) {
+            if (providedDirs.stream().anyMatch(path::startsWith)) {
+                provided.add(path);
+            } else {
+                files.add(path);
+            }
+        }
+        if (!provided.isEmpty()) {
+            getLogger().info("Skipping {} included thrift files provided by other projects: {}",
+                             provided.size(), provided);
+        }
+        return files;
     }
 
-    void compile(String source) {
+    private List<String> providedDirs() {
+        final List<String> providedDirs = new ArrayList<>();
+        getProvidedIncludeDirs().forEach(
+                dir -> providedDirs.add(IncludeGraph.canonicalPath(dir) + File.separator));
+        return providedDirs;
+    }
+
+    // Every source is compiled into its own staging directory, which tells exactly what it generates
+    // without walking the whole output directory. Then the generated files are moved to the output directory,
+    // only those whose content changed if preserveUnchangedOutputs is set.
+    private void compileStaged(Collection<String> sources, OutputManifest outputs, int workItems,
+                               boolean pooled, IncludeGraph includeGraph, Map<String, String> failures) {
         final File outputDirFile = getOutputDir().getAsFile().get();
-        final List<String> cmdLine = new ArrayList<>(
-                Arrays.asList(getThriftExecutable().getOrElse("thrift"),
-                              getCreateGenFolder().getOrElse(true) ? "-o" : "-out",
-                              outputDirFile.getAbsolutePath()));
+        final boolean preserveUnchanged = getPreserveUnchangedOutputs().getOrElse(false);
+        final File stagingDir = new File(getTemporaryDir(), "staging");
+        if (!ResourceGroovyMethods.deleteDir(stagingDir)) {
+            throw new GradleException("Could not delete thrift staging directory: " + stagingDir);
+        }
+        final Map<String, File> stagingDirs = new LinkedHashMap<>();
+        for (String source : sources) {
+            final File sourceStagingDir = new File(stagingDir, String.valueOf(stagingDirs.size()));
+            if (!sourceStagingDir.mkdirs()) {
+                throw new GradleException("Could not create thrift staging directory: " + sourceStagingDir);
+            }
+            stagingDirs.put(source, sourceStagingDir);
+        }
+
+        try {
+            if (pooled) {
+                compileInPool(stagingDirs, failures);
+            } else if (workItems > 1) {
+                compileInParallel(stagingDirs, workItems, failures);
+            } else {
+                stagingDirs.forEach((source, dir) -> compile(source, dir, includeGraph, failures));
+            }
+        } finally {
+            int unchanged = 0;
+            for (Map.Entry<String, File> entry : stagingDirs.entrySet()) {
+                final String path = IncludeGraph.canonicalPath(new File(entry.getKey()));
+                if (!pooled && workItems > 1 &&
+                    report.readExecution(entry.getKey(),
+                                         invocation.commandLine(entry.getValue(), entry.getKey()),
+                                         resultFile(entry.getValue()))) {
+                    recordProblems(entry.getKey(), logFile(entry.getKey()));
+                }
+                final Set<String> generatedFiles = OutputManifest.snapshot(entry.getValue()).keySet();
+                report.generated(entry.getKey(), entry.getValue(), generatedFiles);
+                final Set<String> staleFiles = outputs.remove(path);
+                staleFiles.removeAll(generatedFiles);
+                OutputManifest.delete(outputDirFile, staleFiles);
+                unchanged += outputs.sync(entry.getValue(), outputDirFile, generatedFiles, preserveUnchanged);
+                outputs.record(path, generatedFiles);
+            }
+            if (preserveUnchanged) {
+                getLogger().info("{} generated files are unchanged", unchanged);
+            }
+        }
+    }
+
+    private void compileInParallel(Map<String, File> stagingDirs, int workItems, Map<String, String> failures) {
+        // Each work item compiles its share of the sources one by one, so at most
+        // maxParallelCompilations compiler processes are running for this task at the same time.
+        final List<List<String>> partitions = new ArrayList<>(workItems);
+        final List<List<String>> partitionOutputDirs = new ArrayList<>(workItems);
+        final List<List<String>> partitionResultFiles = new ArrayList<>(workItems);
+        final List<List<String>> partitionLogFiles = new ArrayList<>(workItems);
+        for (int i = 0; i < workItems; i++) {
+            partitions.add(new ArrayList<>());
+            partitionOutputDirs.add(new ArrayList<>());
+            partitionResultFiles.add(new ArrayList<>());
+            partitionLogFiles.add(new ArrayList<>());
+        }
+        int index = 0;
+        for (Map.Entry<String, File> entry : stagingDirs.entrySet()) {
+            partitions.get(index % workItems).add(entry.getKey());
+            partitionOutputDirs.get(index % workItems).add(entry.getValue().getAbsolutePath());
+            partitionResultFiles.get(index % workItems).add(resultFile(entry.getValue()).getAbsolutePath());
+            partitionLogFiles.get(index % workItems).add(logFile(entry.getKey()).getAbsolutePath());
+            index++;
+        }
+
+        final WorkQueue workQueue = getWorkerExecutor().noIsolation();
+        for (int i = 0; i < workItems; i++) {
+            final List<String> partition = partitions.get(i);
+            final List<String> outputDirs = partitionOutputDirs.get(i);
+            final List<String> resultFiles = partitionResultFiles.get(i);
+            final List<String> logFiles = partitionLogFiles.get(i);
+            workQueue.submit(CompileThriftAction.class, parameters -> {
+                parameters.getInvocation().set(invocation);
+                parameters.getSources().set(partition);
+                parameters.getOutputDirs().set(outputDirs);
+                parameters.getResultFiles().set(resultFiles);
+                parameters.getLogFiles().set(logFiles);
+            });
+        }
+        // Failures of all work items are reported together once every item has finished.
+        try {
+            workQueue.await();
+        } catch (WorkerExecutionException e) {
+            final Map<String, String> failed = new LinkedHashMap<>();
+            for (Throwable cause : e.getCauses()) {
+                final ThriftCompilationException failure = compilationFailure(cause);
+                if (failure == null) {
+                    throw e;
+                }
+                failed.putAll(failure.failures());
+            }
+            // In the order of the sources rather than the order the work items finished.
+            stagingDirs.keySet().forEach(source -> {
+                if (failed.containsKey(source)) {
+                    failures.put(IncludeGraph.canonicalPath(new File(source)), failed.get(source));
+                }
+            });
+        }
+    }
+
+    private static ThriftCompilationException compilationFailure(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ThriftCompilationException) {
+                return (ThriftCompilationException) cause;
+            }
+        }
+        return null;
+    }
+
+    private void compileInPool(Map<String, File> stagingDirs, Map<String, String> failures) {
+        // The pool bounds the number of thrift processes of the whole build instead of maxParallelCompilations.
+        final ThriftProcessPool pool = getProcessPool().get();
+        final File workingDir = getProjectLayout().getProjectDirectory().getAsFile();
+        final Map<String, List<String>> cmdLines = new LinkedHashMap<>();
+        final Map<String, CompilerOutput> outputs = new LinkedHashMap<>();
+        final Map<String, Future<ThriftProcessPool.Execution>> executions = new LinkedHashMap<>();
+        boolean completed = false;
+        try {
+            stagingDirs.forEach((source, outputDir) -> {
+                final List<String> cmdLine = invocation.commandLine(outputDir, source);
+                getLogger().info("Submitting thrift to the process pool. Command: {}",
+                                 String.join(" ", cmdLine));
+                cmdLines.put(source, cmdLine);
+                final CompilerOutput output = new CompilerOutput(logFile(source), getLogger());
+                outputs.put(source, output);
+                executions.put(source, pool.submit(cmdLine, workingDir, output));
+            });
+
+            for (Map.Entry<String, Future<ThriftProcessPool.Execution>> entry : executions.entrySet()) {
+                final String source = entry.getKey();
+                final String path = IncludeGraph.canonicalPath(new File(source));
+                final ThriftProcessPool.Execution execution;
+                try {
+                    execution = entry.getValue().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new GradleException("Interrupted while compiling " + source, e);
+                } catch (ExecutionException e) {
+                    // e.g. thrift could not be started. Reported with the other failures.
+                    close(outputs.remove(source));
+                    failures.put(path, source + ", " + e.getCause());
+                    continue;
+                }
+                final CompilerOutput output = outputs.remove(source);
+                close(output);
+                report.executed(source, cmdLines.get(source), execution.wallTimeMillis(), execution.exitCode());
+                recordProblems(source, logFile(source));
+                if (execution.exitCode() != 0) {
+                    logFailure(getLogger(), output);
+                    failures.put(path, ThriftCompilationException.describe(source, execution.exitCode(),
+                                                                           logFile(source)));
+                }
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                // Not to leave thrift processes writing to the staging directories and the logs.
+                executions.values().forEach(future -> future.cancel(true));
+            }
+            outputs.values().forEach(CompileThrift::close);
+        }
+    }
+
+    private void recordProblems(String source, File logFile) {
+        final List<ThriftProblem> problems = ThriftProblem.parse(logFile);
+        report.problems(source, problems);
+        problems.forEach(problem -> {
+            if (problem.getSeverity() == ThriftProblem.Severity.WARNING) {
+                getLogger().warn(problem.toString());
+            }
+        });
+    }
+
+    // e.g. build/thrift-logs/compileThrift/src/main/thrift/foo.thrift.log
+    File logFile(String source) {
+        final Path path = Paths.get(source);
+        if (path.startsWith(canonicalProjectDir)) {
+            return new File(logDir, canonicalProjectDir.relativize(path) + ".log");
+        }
+        return new File(logDir, "external/" + Integer.toHexString(source.hashCode()) + '/' +
+                                path.getFileName() + ".log");
+    }
+
+    // Next to the staging directory, so that it's not taken as a generated file.
+    private static File resultFile(File stagingDir) {
+        return new File(stagingDir.getPath() + ".result");
+    }
+
+    private void reportCompilations() {
+        final List<ThriftCompilation> compilations = report.compilations(getPath());
+        if (compilations.isEmpty()) {
+            return;
+        }
+        getLogger().info(CompilationReport.summary(compilations, 5));
+        if (getReportDir().isPresent()) {
+            final File reportDir = getReportDir().getAsFile().get();
+            CompilationReport.writeJson(new File(reportDir, getName() + ".json"), compilations);
+            CompilationReport.writeCsv(new File(reportDir, getName() + ".csv"), compilations);
+        }
+        if (getMetricsService().isPresent()) {
+            getMetricsService().get().record(compilations);
+        }
+    }
+
+    // Returns whether the source has been compiled. A source including a source which failed is skipped,
+    // because it would fail as well.
+    boolean compile(String source, File outputDir, IncludeGraph includeGraph, Map<String, String> failures) {
+        final String path = IncludeGraph.canonicalPath(new File(source));
+        if (!failures.isEmpty()) {
+            final Set<String> failedIncludes =
+                    includeGraph.withIncludes(Collections.singleton(path), includeDirs());
+            failedIncludes.retainAll(failures.keySet());
+            if (!failedIncludes.isEmpty()) {
+                getLogger().warn("Skipping {}, which includes {} that failed to compile",
+                                 source, failedIncludes);
+                return false;
+            }
+        }
+
+        final List<String> cmdLine = invocation.commandLine(outputDir, source);
+
+        final long start = System.nanoTime();
+        final File logFile = logFile(source);
+        final int exitCode = exec(getExecOperations(), cmdLine, logFile, getLogger());
+        report.executed(source, cmdLine, (System.nanoTime() - start) / 1_000_000, exitCode);
+        recordProblems(source, logFile);
+        if (exitCode != 0) {
+            failures.put(path, ThriftCompilationException.describe(source, exitCode, logFile));
+            if (getFailFast().getOrElse(true)) {
+                ThriftCompilationException.check(failures);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    ThriftInvocation createInvocation() {
+        final List<File> includeDirs = new ArrayList<>(getIncludeDirs().getFiles());
+        final List<String> cmdLine = new ArrayList<>();
         getGenerators().get().forEach((key, value) -> {
             cmdLine.add("--gen");
 
@@ -186,12 +863,13 @@ public abstract class CompileThrift extends DefaultTask {
             cmdLine.add(cmd);
         });
 
-        getIncludeDirs().forEach(includeDir -> {
+        includeDirs.forEach(includeDir -> {
             cmdLine.add("-I");
             cmdLine.add(includeDir.getAbsolutePath());
         });
 
-        if (getRecurse().getOrElse(false)) {
+        // Batch mode compiles the roots only, which have to generate everything they include.
+        if (recursive() && getProvidedIncludeDirs().isEmpty()) {
             cmdLine.add("-r");
         }
         if (getNowarn().getOrElse(false)) {
@@ -206,15 +884,86 @@ public abstract class CompileThrift extends DefaultTask {
         if (getDebug().getOrElse(false)) {
             cmdLine.add("-debug");
         }
-        cmdLine.add(source);
+        return new ThriftInvocation(thriftExecutable(),
+                                    getCreateGenFolder().getOrElse(true) ? "-o" : "-out", cmdLine, includeDirs);
+    }
 
-        final ExecResult result = getExecOperations().exec(execSpec -> {
-            execSpec.commandLine(cmdLine);
-        });
+    private String thriftExecutable() {
+        final File compiler = singleFile(getThriftCompiler().getElements().get());
+        if (compiler == null) {
+            return getThriftExecutable().getOrElse("thrift");
+        }
+        final File cacheDir =
+                getToolchainCacheDir().getAsFile().getOrElse(new File(getTemporaryDir(), "toolchain"));
+        return ThriftToolchain.install(compiler, getThriftCompilerChecksum().getOrNull(), cacheDir).getPath();
+    }
 
-        final int exitCode = result.getExitValue();
-        if (exitCode != 0) {
-            throw new GradleException("Failed to compile " + source + ", exit=" + exitCode);
+    /**
+     * Resolves the thrift executable the same way as it is resolved when it is executed.
+     * Returns {@code null} if the executable cannot be found.
+     */
+    static File findExecutable(File projectDir, String executable, String searchPath) {
+        if (executable.indexOf('/') >= 0 || executable.indexOf(File.separatorChar) >= 0) {
+            final File file = new File(executable);
+            final File resolved = file.isAbsolute() ? file : new File(projectDir, executable);
+            return resolved.isFile() ? resolved : null;
+        }
+
+        final boolean isWindows = File.separatorChar == '\\';
+        for (String dir : searchPath.split(File.pathSeparator)) {
+            if (dir.isEmpty()) {
+                continue;
+            }
+            final File candidate = new File(dir, executable);
+            if (candidate.isFile()) {
+                return candidate;
+            }
+            if (isWindows) {
+                final File exe = new File(dir, executable + ".exe");
+                if (exe.isFile()) {
+                    return exe;
+                }
+            }
+        }
+        return null;
+    }
+
+    static int exec(ExecOperations execOperations, List<String> cmdLine, File logFile, Logger logger) {
+        final CompilerOutput output = new CompilerOutput(logFile, logger);
+        final ExecResult result;
+        try (OutputStream standardOutput = output.newStream();
+             OutputStream errorOutput = output.newStream()) {
+            result = execOperations.exec(execSpec -> {
+                execSpec.commandLine(cmdLine);
+                execSpec.setStandardOutput(standardOutput);
+                execSpec.setErrorOutput(errorOutput);
+                // Report the failing source with our own message instead of a generic ExecException.
+                execSpec.setIgnoreExitValue(true);
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            close(output);
+        }
+        if (result.getExitValue() != 0) {
+            logFailure(logger, output);
+        }
+        return result.getExitValue();
+    }
+
+    // Only the end of the output, which is where thrift reports what went wrong.
+    static void logFailure(Logger logger, CompilerOutput output) {
+        final String tail = output.tail();
+        if (!tail.isEmpty()) {
+            logger.error(tail);
+        }
+    }
+
+    private static void close(CompilerOutput output) {
+        try {
+            output.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 }
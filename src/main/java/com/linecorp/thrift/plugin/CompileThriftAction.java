@@ -0,0 +1,78 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.process.ExecOperations;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+public abstract class CompileThriftAction implements WorkAction<CompileThriftAction.Parameters> {
+
+    public interface Parameters extends WorkParameters {
+        Property<ThriftInvocation> getInvocation();
+
+        ListProperty<String> getSources();
+
+        // The output directory of each source.
+        ListProperty<String> getOutputDirs();
+
+        // Where the wall time and the exit code of each source are written.
+        ListProperty<String> getResultFiles();
+
+        // Where the output of each source is written.
+        ListProperty<String> getLogFiles();
+    }
+
+    @Inject
+    public abstract ExecOperations getExecOperations();
+
+    @Override
+    public void execute() {
+        final Map<String, String> failures = new LinkedHashMap<>();
+        final List<String> sources = getParameters().getSources().get();
+        final List<String> outputDirs = getParameters().getOutputDirs().get();
+        final List<String> resultFiles = getParameters().getResultFiles().get();
+        final List<String> logFiles = getParameters().getLogFiles().get();
+        final ThriftInvocation invocation = getParameters().getInvocation().get();
+        for (int i = 0; i < sources.size(); i++) {
+            final String source = sources.get(i);
+            final List<String> cmdLine = invocation.commandLine(new File(outputDirs.get(i)), source);
+
+            // Keep going so that every broken file is reported at once.
+            final long start = System.nanoTime();
+            final File logFile = new File(logFiles.get(i));
+            final int exitCode = CompileThrift.exec(getExecOperations(), cmdLine, logFile,
+                                                    Logging.getLogger(CompileThriftAction.class));
+            CompilationReport.writeExecution(new File(resultFiles.get(i)),
+                                             (System.nanoTime() - start) / 1_000_000, exitCode);
+            if (exitCode != 0) {
+                failures.put(source, ThriftCompilationException.describe(source, exitCode, logFile));
+            }
+        }
+        ThriftCompilationException.check(failures);
+    }
+}
@@ -30,6 +30,16 @@ public abstract class CompileThriftExtension {
 
     public abstract Property<String> getThriftExecutable();
 
+    public abstract Property<String> getThriftVersion();
+
+    public abstract Property<String> getThriftPlatform();
+
+    public abstract DirectoryProperty getThriftRepository();
+
+    public abstract Property<String> getThriftArtifact();
+
+    public abstract MapProperty<String, String> getThriftChecksums();
+
     public abstract Property<Boolean> getNowarn();
 
     public abstract Property<Boolean> getStrict();
@@ -40,6 +50,22 @@ public abstract class CompileThriftExtension {
 
     public abstract Property<Boolean> getCreateGenFolder();
 
+    public abstract Property<Boolean> getBatch();
+
+    public abstract Property<Boolean> getPreserveUnchangedOutputs();
+
+    public abstract Property<Boolean> getIgnoreCommentChanges();
+
+    public abstract Property<Boolean> getIgnoreUnusedDefinitionChanges();
+
+    public abstract Property<Boolean> getUseProcessPool();
+
+    public abstract Property<Boolean> getSplitGenerators();
+
+    public abstract Property<Boolean> getFailFast();
+
+    public abstract Property<Boolean> getGeneratedSourceSet();
+
     public abstract Property<Boolean> getAutoDetectPlugin();
 
     public abstract MapProperty<String, String> getGenerators();
@@ -50,6 +76,8 @@ public abstract class CompileThriftExtension {
 
     public abstract DirectoryProperty getOutputDir();
 
+    public abstract Property<Integer> getMaxParallelCompilations();
+
     public void verbose(boolean verbose) {
         getVerbose().set(verbose);
     }
@@ -58,6 +86,30 @@ public abstract class CompileThriftExtension {
         getThriftExecutable().set(thriftExecutable);
     }
 
+    public void thriftVersion(String thriftVersion) {
+        getThriftVersion().set(thriftVersion);
+    }
+
+    public void thriftPlatform(String thriftPlatform) {
+        getThriftPlatform().set(thriftPlatform);
+    }
+
+    public void thriftRepository(File thriftRepository) {
+        getThriftRepository().set(thriftRepository);
+    }
+
+    public void thriftRepository(Directory thriftRepository) {
+        getThriftRepository().set(thriftRepository);
+    }
+
+    public void thriftArtifact(String thriftArtifact) {
+        getThriftArtifact().set(thriftArtifact);
+    }
+
+    public void thriftChecksum(String platform, String sha256) {
+        getThriftChecksums().put(platform, sha256);
+    }
+
     public void nowarn(boolean nowarn) {
         getNowarn().set(nowarn);
     }
@@ -74,6 +126,38 @@ public abstract class CompileThriftExtension {
         getRecurse().set(recurse);
     }
 
+    public void batch(boolean batch) {
+        getBatch().set(batch);
+    }
+
+    public void preserveUnchangedOutputs(boolean preserveUnchangedOutputs) {
+        getPreserveUnchangedOutputs().set(preserveUnchangedOutputs);
+    }
+
+    public void ignoreCommentChanges(boolean ignoreCommentChanges) {
+        getIgnoreCommentChanges().set(ignoreCommentChanges);
+    }
+
+    public void ignoreUnusedDefinitionChanges(boolean ignoreUnusedDefinitionChanges) {
+        getIgnoreUnusedDefinitionChanges().set(ignoreUnusedDefinitionChanges);
+    }
+
+    public void useProcessPool(boolean useProcessPool) {
+        getUseProcessPool().set(useProcessPool);
+    }
+
+    public void splitGenerators(boolean splitGenerators) {
+        getSplitGenerators().set(splitGenerators);
+    }
+
+    public void failFast(boolean failFast) {
+        getFailFast().set(failFast);
+    }
+
+    public void generatedSourceSet(boolean generatedSourceSet) {
+        getGeneratedSourceSet().set(generatedSourceSet);
+    }
+
     public void autoDetectPlugin(boolean autoDetectPlugin) {
         getAutoDetectPlugin().set(autoDetectPlugin);
     }
@@ -82,6 +166,10 @@ public abstract class CompileThriftExtension {
         getCreateGenFolder().set(createGenFolder);
     }
 
+    public void maxParallelCompilations(int maxParallelCompilations) {
+        getMaxParallelCompilations().set(maxParallelCompilations);
+    }
+
     public void sourceDir(Object file) {
         getSourceItems().from(file);
     }
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import org.gradle.api.logging.Logger;
+
+/**
+ * The standard output and error of a thrift process. All of it is written to a log file and logged at info
+ * level line by line, while only its end is kept in memory to be shown when the compilation fails.
+ */
+final class CompilerOutput implements Closeable {
+
+    static final int TAIL_SIZE = 16 * 1024;
+
+    private final OutputStream log;
+    private final Logger logger;
+    private final byte[] tail = new byte[TAIL_SIZE];
+    private long written;
+
+    CompilerOutput(File logFile, Logger logger) {
+        this.logger = logger;
+        try {
+            Files.createDirectories(logFile.getParentFile().toPath());
+            log = new BufferedOutputStream(new FileOutputStream(logFile));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns a stream for the standard output or error. Each of them is written line by line,
+     * so that the lines of both don't get mixed up.
+     */
+    OutputStream newStream() {
+        return new LineStream();
+    }
+
+    private synchronized void writeLine(ByteArrayOutputStream line) throws IOException {
+        line.write('\n');
+        final byte[] bytes = line.toByteArray();
+        line.reset();
+        log.write(bytes);
+        for (byte b : bytes) {
+            tail[(int) (written++ % TAIL_SIZE)] = b;
+        }
+        final String text = new String(bytes, Charset.defaultCharset()).trim();
+        if (!text.isEmpty()) {
+            logger.info(text);
+        }
+    }
+
+    /**
+     * Returns the last {@value #TAIL_SIZE} bytes of the output.
+     */
+    synchronized String tail() {
+        final byte[] bytes;
+        if (written <= TAIL_SIZE) {
+            bytes = new byte[(int) written];
+            System.arraycopy(tail, 0, bytes, 0, bytes.length);
+        } else {
+            final int start = (int) (written % TAIL_SIZE);
+            bytes = new byte[TAIL_SIZE];
+            System.arraycopy(tail, start, bytes, 0, TAIL_SIZE - start);
+            System.arraycopy(tail, 0, bytes, TAIL_SIZE - start, start);
+        }
+        return text(bytes, written > TAIL_SIZE);
+    }
+
+    /**
+     * Returns the last {@value #TAIL_SIZE} bytes of a log file written by this class.
+     */
+    static String tail(File logFile) {
+        if (!logFile.isFile()) {
+            return "";
+        }
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "r")) {
+            final long length = file.length();
+            final byte[] bytes = new byte[(int) Math.min(length, TAIL_SIZE)];
+            file.seek(length - bytes.length);
+            file.readFully(bytes);
+            return text(bytes, length > TAIL_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String text(byte[] bytes, boolean truncated) {
+        final String text = new String(bytes, Charset.defaultCharset()).trim();
+        return truncated ? "...\n" + text : text;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        log.close();
+    }
+
+    private final class LineStream extends OutputStream {
+
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) throws IOException {
+            if (b == '\n') {
+                writeLine(line);
+                return;
+            }
+            line.write(b);
+            // A very long line is split not to be kept in memory.
+            if (line.size() >= TAIL_SIZE) {
+                writeLine(line);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (line.size() > 0) {
+                writeLine(line);
+            }
+        }
+    }
+}
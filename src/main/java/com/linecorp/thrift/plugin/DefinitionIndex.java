@@ -0,0 +1,207 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.linecorp.thrift.plugin.IdlDocument.Definition;
+
+/**
+ * The top level definitions of thrift files with a fingerprint of each, and which definitions they refer to,
+ * used to find the files which use a changed definition, rather than all files including a changed file.
+ */
+final class DefinitionIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final class FileDefinitions implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        // The digest of the includes and the namespaces, which affect all definitions.
+        private final String header;
+
+        // Whether the file could be parsed to the end. Otherwise the references are incomplete.
+        private final boolean complete;
+
+        // Name -> digest of the definition without comments other than doc comments.
+        private final Map<String, String> fingerprints = new LinkedHashMap<>();
+
+        // Name -> the names the definition refers to, as written.
+        private final Map<String, Set<String>> references = new HashMap<>();
+
+        FileDefinitions(IdlDocument document) {
+            header = SourceDigests.digest((document.includes() + "\n" + document.namespaces())
+                                                  .getBytes(StandardCharsets.UTF_8));
+            complete = document.error() == null;
+            for (Definition definition : document.definitions()) {
+                fingerprints.put(definition.name(), SourceDigests.digest(
+                        SourceDigests.normalize(definition.text()).getBytes(StandardCharsets.UTF_8)));
+                references.put(definition.name(), new HashSet<>(definition.references()));
+            }
+        }
+    }
+
+    // Canonical path of a thrift file -> its definitions.
+    private final Map<String, FileDefinitions> files = new HashMap<>();
+
+    /**
+     * Updates the given file with its parsed content, or forgets it if the document is {@code null}.
+     * Returns the names of the definitions which were added, removed or changed, which are all definitions
+     * if the includes or the namespaces changed.
+     */
+    Set<String> update(File file, IdlDocument document) {
+        final String path = IncludeGraph.canonicalPath(file);
+        final FileDefinitions previous = document != null ? files.put(path, new FileDefinitions(document))
+                                                          : files.remove(path);
+        final FileDefinitions current = files.get(path);
+        final Set<String> changed = new TreeSet<>();
+        if (previous == null || current == null || !previous.header.equals(current.header) ||
+            !previous.complete || !current.complete) {
+            if (previous != null) {
+                changed.addAll(previous.fingerprints.keySet());
+            }
+            if (current != null) {
+                changed.addAll(current.fingerprints.keySet());
+            }
+            return changed;
+        }
+        current.fingerprints.forEach((name, fingerprint) -> {
+            if (!fingerprint.equals(previous.fingerprints.get(name))) {
+                changed.add(name);
+            }
+        });
+        previous.fingerprints.keySet().forEach(name -> {
+            if (!current.fingerprints.containsKey(name)) {
+                changed.add(name);
+            }
+        });
+        return changed;
+    }
+
+    /**
+     * Returns the canonical paths of the given changed files and all files using any of the changed
+     * definitions, directly or through the definitions of other files.
+     *
+     * @param changes the changed definitions of each changed file, as returned by {@link #update}
+     */
+    Set<String> withUsers(Map<String, Set<String>> changes, IncludeGraph includeGraph,
+                          List<File> includeDirs) {
+        final Map<String, Set<String>> includedBy = includeGraph.includedBy(includeDirs);
+        final Set<String> result = new LinkedHashSet<>(changes.keySet());
+        // Canonical path -> the definitions whose generated code may change.
+        final Map<String, Set<String>> changedDefinitions = new HashMap<>();
+        final Deque<String> queue = new ArrayDeque<>();
+        changes.forEach((path, names) -> {
+            changedDefinitions.put(path, withLocalUsers(files.get(path), names));
+            queue.add(path);
+        });
+
+        while (!queue.isEmpty()) {
+            final String path = queue.poll();
+            final Set<String> names = changedDefinitions.get(path);
+            if (names.isEmpty()) {
+                continue;
+            }
+            // Thrift refers to the definitions of an included file with its name as the prefix.
+            final String fileName = new File(path).getName();
+            final String prefix = fileName.endsWith(".thrift") ? fileName.substring(0, fileName.length() - 7)
+                                                               : fileName;
+            for (String dependent : includedBy.getOrDefault(path, Collections.emptySet())) {
+                final FileDefinitions definitions = files.get(dependent);
+                if (definitions == null || !definitions.complete) {
+                    // Unknown which definitions it uses.
+                    result.addAll(includeGraph.withDependents(Collections.singleton(dependent), includeDirs));
+                    continue;
+                }
+                final Set<String> users = new HashSet<>();
+                definitions.references.forEach((name, references) -> {
+                    for (String reference : references) {
+                        if (names.contains(referredName(reference, prefix))) {
+                            users.add(name);
+                            break;
+                        }
+                    }
+                });
+                if (users.isEmpty()) {
+                    continue;
+                }
+                result.add(dependent);
+                if (changedDefinitions.computeIfAbsent(dependent, unused -> new HashSet<>())
+                                      .addAll(withLocalUsers(definitions, users))) {
+                    queue.add(dependent);
+                }
+            }
+        }
+        return result;
+    }
+
+    // The given definitions and the definitions of the same file using any of them, directly or transitively.
+    private static Set<String> withLocalUsers(FileDefinitions definitions, Set<String> names) {
+        final Set<String> result = new HashSet<>(names);
+        if (definitions == null) {
+            return result;
+        }
+        boolean added = true;
+        while (added) {
+            added = false;
+            for (Map.Entry<String, Set<String>> entry : definitions.references.entrySet()) {
+                if (result.contains(entry.getKey())) {
+                    continue;
+                }
+                for (String reference : entry.getValue()) {
+                    if (result.contains(referredName(reference, null))) {
+                        result.add(entry.getKey());
+                        added = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the name of the definition the given reference refers to, e.g. {@code Color} for
+     * {@code shared.Color.RED} with the prefix {@code shared}, or {@code Color.RED} without a prefix.
+     * Returns {@code null} if the reference doesn't start with the prefix.
+     */
+    private static String referredName(String reference, String prefix) {
+        String name = reference;
+        if (prefix != null) {
+            if (!reference.startsWith(prefix + '.')) {
+                return null;
+            }
+            name = reference.substring(prefix.length() + 1);
+        }
+        final int dot = name.indexOf('.');
+        return dot < 0 ? name : name.substring(0, dot);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The headers and the definitions of a thrift file, as parsed by {@link IdlParser}.
+ */
+final class IdlDocument {
+
+    enum Kind {
+        TYPEDEF, CONST, ENUM, SENUM, STRUCT, UNION, EXCEPTION, SERVICE
+    }
+
+    /**
+     * A top level definition with the names of the types, constants and services it refers to, as written.
+     * e.g. {@code Foo}, {@code shared.Foo} or {@code Color.RED}.
+     */
+    static final class Definition {
+
+        private final Kind kind;
+        private final String name;
+        private final Set<String> references;
+        private final String text;
+
+        Definition(Kind kind, String name, Set<String> references, String text) {
+            this.kind = kind;
+            this.name = name;
+            this.references = Collections.unmodifiableSet(new LinkedHashSet<>(references));
+            this.text = text;
+        }
+
+        Kind kind() {
+            return kind;
+        }
+
+        String name() {
+            return name;
+        }
+
+        Set<String> references() {
+            return references;
+        }
+
+        /**
+         * The source of the definition as written, from its keyword to its end, without the comments before it.
+         */
+        String text() {
+            return text;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + name + references;
+        }
+    }
+
+    private final List<String> includes;
+    private final Map<String, String> namespaces;
+    private final List<Definition> definitions;
+    private final String error;
+
+    IdlDocument(List<String> includes, Map<String, String> namespaces, List<Definition> definitions,
+                String error) {
+        this.includes = Collections.unmodifiableList(includes);
+        this.namespaces = Collections.unmodifiableMap(new LinkedHashMap<>(namespaces));
+        this.definitions = Collections.unmodifiableList(definitions);
+        this.error = error;
+    }
+
+    /**
+     * The paths of the include directives as written.
+     */
+    List<String> includes() {
+        return includes;
+    }
+
+    /**
+     * The namespaces by their scope, e.g. {@code java} or {@code *}.
+     */
+    Map<String, String> namespaces() {
+        return namespaces;
+    }
+
+    List<Definition> definitions() {
+        return definitions;
+    }
+
+    /**
+     * The syntax error which stopped parsing, or {@code null}. What was parsed before it is still available.
+     */
+    String error() {
+        return error;
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.linecorp.thrift.plugin.IdlDocument.Definition;
+import com.linecorp.thrift.plugin.IdlDocument.Kind;
+
+/**
+ * A parser of the thrift IDL, which reads what the plugin needs to know about a thrift file without running
+ * the compiler, i.e. the includes, the namespaces and which definitions refer to which.
+ * It accepts the grammar of thrift 0.17.0 but doesn't validate it, e.g. duplicated names or undefined types.
+ */
+final class IdlParser {
+
+    private static final Set<String> BASE_TYPES = new HashSet<>(Arrays.asList(
+            "bool", "byte", "i8", "i16", "i32", "i64", "double", "string", "binary", "uuid", "slist", "void"));
+
+    /**
+     * Reads and parses the given thrift file.
+     */
+    static IdlDocument parse(File file) {
+        final String content;
+        try {
+            // Only ASCII is relevant here, and ISO-8859-1 never fails to decode.
+            content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return parse(content);
+    }
+
+    /**
+     * Parses the given content of a thrift file. A syntax error stops parsing but doesn't fail,
+     * see {@link IdlDocument#error()}.
+     */
+    static IdlDocument parse(String content) {
+        final IdlParser parser = new IdlParser(content);
+        String error = null;
+        try {
+            parser.parseDocument();
+        } catch (IllegalArgumentException e) {
+            error = e.getMessage();
+        }
+        return new IdlDocument(parser.includes, parser.namespaces, parser.definitions, error);
+    }
+
+    private enum TokenType {
+        IDENTIFIER, LITERAL, NUMBER, SYMBOL, EOF
+    }
+
+    private final String content;
+    private int position;
+    private int line = 1;
+
+    private TokenType type;
+    private String text;
+    private int tokenLine;
+    private int tokenStart;
+    // Where the previous token ends.
+    private int previousEnd;
+    // Where the definition being parsed starts.
+    private int definitionStart;
+
+    private final List<String> includes = new ArrayList<>();
+    private final Map<String, String> namespaces = new LinkedHashMap<>();
+    private final List<Definition> definitions = new ArrayList<>();
+
+    private IdlParser(String content) {
+        this.content = content;
+    }
+
+    private void parseDocument() {
+        advance();
+        while (type != TokenType.EOF) {
+            if (isSymbol(";") || isSymbol(",")) {
+                advance();
+                continue;
+            }
+            definitionStart = tokenStart;
+            final String keyword = expectIdentifier();
+            switch (keyword) {
+                case "include":
+                    includes.add(expectLiteral());
+                    break;
+                case "cpp_include":
+                    expectLiteral();
+                    break;
+                case "namespace":
+                    final String scope = isSymbol("*") ? consume() : expectIdentifier();
+                    namespaces.put(scope, type == TokenType.LITERAL ? expectLiteral() : expectIdentifier());
+                    skipAnnotations();
+                    break;
+                case "typedef":
+                    parseTypedef();
+                    break;
+                case "const":
+                    parseConst();
+                    break;
+                case "enum":
+                    parseEnum();
+                    break;
+                case "senum":
+                    parseSenum();
+                    break;
+                case "struct":
+                    parseStruct(Kind.STRUCT);
+                    break;
+                case "union":
+                    parseStruct(Kind.UNION);
+                    break;
+                case "exception":
+                    parseStruct(Kind.EXCEPTION);
+                    break;
+                case "service":
+                    parseService();
+                    break;
+                default:
+                    throw error("Unexpected '" + keyword + '\'');
+            }
+        }
+    }
+
+    private void parseTypedef() {
+        final Set<String> references = new LinkedHashSet<>();
+        parseType(references);
+        final String name = expectIdentifier();
+        skipAnnotations();
+        definitions.add(new Definition(Kind.TYPEDEF, name, references, definitionText()));
+    }
+
+    private void parseConst() {
+        final Set<String> references = new LinkedHashSet<>();
+        parseType(references);
+        final String name = expectIdentifier();
+        expectSymbol("=");
+        parseConstValue(references);
+        definitions.add(new Definition(Kind.CONST, name, references, definitionText()));
+    }
+
+    private void parseEnum() {
+        final String name = expectIdentifier();
+        expectSymbol("{");
+        while (!isSymbol("}")) {
+            expectIdentifier();
+            if (isSymbol("=")) {
+                advance();
+                expect(TokenType.NUMBER, "a number");
+            }
+            skipAnnotations();
+            skipSeparator();
+        }
+        advance();
+        skipAnnotations();
+        definitions.add(new Definition(Kind.ENUM, name, new HashSet<>(), definitionText()));
+    }
+
+    private void parseSenum() {
+        final String name = expectIdentifier();
+        expectSymbol("{");
+        while (!isSymbol("}")) {
+            expectLiteral();
+            skipSeparator();
+        }
+        advance();
+        skipAnnotations();
+        definitions.add(new Definition(Kind.SENUM, name, new HashSet<>(), definitionText()));
+    }
+
+    private void parseStruct(Kind kind) {
+        final String name = expectIdentifier();
+        if (isIdentifier("xsd_all")) {
+            advance();
+        }
+        final Set<String> references = new LinkedHashSet<>();
+        expectSymbol("{");
+        parseFields("}", references);
+        skipAnnotations();
+        definitions.add(new Definition(kind, name, references, definitionText()));
+    }
+
+    private void parseService() {
+        final String name = expectIdentifier();
+        final Set<String> references = new LinkedHashSet<>();
+        if (isIdentifier("extends")) {
+            advance();
+            references.add(expectIdentifier());
+        }
+        expectSymbol("{");
+        while (!isSymbol("}")) {
+            if (isIdentifier("oneway")) {
+                advance();
+            }
+            parseType(references);
+            expectIdentifier();
+            expectSymbol("(");
+            parseFields(")", references);
+            if (isIdentifier("throws")) {
+                advance();
+                expectSymbol("(");
+                parseFields(")", references);
+            }
+            skipAnnotations();
+            skipSeparator();
+        }
+        advance();
+        skipAnnotations();
+        definitions.add(new Definition(Kind.SERVICE, name, references, definitionText()));
+    }
+
+    // The source of the definition being parsed, from its keyword to the last token parsed.
+    private String definitionText() {
+        return content.substring(definitionStart, previousEnd);
+    }
+
+    // Parses the fields until the given closing symbol, which is consumed as well.
+    private void parseFields(String close, Set<String> references) {
+        while (!isSymbol(close)) {
+            if (type == TokenType.NUMBER) {
+                advance();
+                expectSymbol(":");
+            }
+            if (isIdentifier("required") || isIdentifier("optional")) {
+                advance();
+            }
+            parseType(references);
+            expectIdentifier();
+            if (isSymbol("=")) {
+                advance();
+                parseConstValue(references);
+            }
+            for (String xsd : Arrays.asList("xsd_optional", "xsd_nillable")) {
+                if (isIdentifier(xsd)) {
+                    advance();
+                }
+            }
+            skipAnnotations();
+            skipSeparator();
+        }
+        advance();
+    }
+
+    private void parseType(Set<String> references) {
+        final String name = expectIdentifier();
+        switch (name) {
+            case "list":
+            case "set":
+                expectSymbol("<");
+                parseType(references);
+                expectSymbol(">");
+                break;
+            case "map":
+                expectSymbol("<");
+                parseType(references);
+                expectSymbol(",");
+                parseType(references);
+                expectSymbol(">");
+                break;
+            default:
+                if (!BASE_TYPES.contains(name)) {
+                    references.add(name);
+                }
+        }
+        if (isIdentifier("cpp_type")) {
+            advance();
+            expectLiteral();
+        }
+        skipAnnotations();
+    }
+
+    private void parseConstValue(Set<String> references) {
+        if (isSymbol("[")) {
+            advance();
+            while (!isSymbol("]")) {
+                parseConstValue(references);
+                skipSeparator();
+            }
+            advance();
+        } else if (isSymbol("{")) {
+            advance();
+            while (!isSymbol("}")) {
+                parseConstValue(references);
+                expectSymbol(":");
+                parseConstValue(references);
+                skipSeparator();
+            }
+            advance();
+        } else if (type == TokenType.IDENTIFIER) {
+            // An enum value or another constant.
+            references.add(consume());
+        } else if (type == TokenType.LITERAL || type == TokenType.NUMBER) {
+            advance();
+        } else {
+            throw error("Expected a constant value");
+        }
+    }
+
+    private void skipAnnotations() {
+        if (!isSymbol("(")) {
+            return;
+        }
+        int depth = 0;
+        do {
+            if (type == TokenType.EOF) {
+                throw error("Unclosed annotations");
+            }
+            if (isSymbol("(")) {
+                depth++;
+            } else if (isSymbol(")")) {
+                depth--;
+            }
+            advance();
+        } while (depth > 0);
+    }
+
+    private void skipSeparator() {
+        if (isSymbol(",") || isSymbol(";")) {
+            advance();
+        }
+    }
+
+    private boolean isSymbol(String symbol) {
+        return type == TokenType.SYMBOL && text.equals(symbol);
+    }
+
+    private boolean isIdentifier(String identifier) {
+        return type == TokenType.IDENTIFIER && text.equals(identifier);
+    }
+
+    private String expectIdentifier() {
+        return expect(TokenType.IDENTIFIER, "an identifier");
+    }
+
+    private String expectLiteral() {
+        return expect(TokenType.LITERAL, "a literal");
+    }
+
+    private void expectSymbol(String symbol) {
+        if (!isSymbol(symbol)) {
+            throw error("Expected '" + symbol + '\'');
+        }
+        advance();
+    }
+
+    private String expect(TokenType expected, String description) {
+        if (type != expected) {
+            throw error("Expected " + description);
+        }
+        return consume();
+    }
+
+    private String consume() {
+        final String consumed = text;
+        advance();
+        return consumed;
+    }
+
+    private IllegalArgumentException error(String message) {
+        final String found = type == TokenType.EOF ? "end of file" : '\'' + text + '\'';
+        return new IllegalArgumentException(message + " at line " + tokenLine + ", found " + found);
+    }
+
+    // Reads the next token, skipping whitespace and comments.
+    private void advance() {
+        previousEnd = position;
+        skipWhitespaceAndComments();
+        tokenLine = line;
+        tokenStart = position;
+        final int length = content.length();
+        if (position >= length) {
+            type = TokenType.EOF;
+            text = "";
+            return;
+        }
+        final int start = position;
+        final char c = content.charAt(position);
+        if (c == '"' || c == '\'') {
+            position++;
+            while (position < length && content.charAt(position) != c) {
+                if (content.charAt(position) == '\\') {
+                    position++;
+                } else if (content.charAt(position) == '\n') {
+                    line++;
+                }
+                position++;
+            }
+            if (position >= length) {
+                throw error("Unterminated literal");
+            }
+            position++;
+            type = TokenType.LITERAL;
+            text = content.substring(start + 1, position - 1);
+        } else if (Character.isLetter(c) || c == '_') {
+            while (position < length && isIdentifierPart(content.charAt(position))) {
+                position++;
+            }
+            type = TokenType.IDENTIFIER;
+            text = content.substring(start, position);
+        } else if (Character.isDigit(c) ||
+                   ((c == '+' || c == '-' || c == '.') && position + 1 < length &&
+                    Character.isDigit(content.charAt(position + 1)))) {
+            position++;
+            while (position < length) {
+                final char next = content.charAt(position);
+                final char previous = content.charAt(position - 1);
+                if (Character.isLetterOrDigit(next) || next == '.' ||
+                    ((next == '+' || next == '-') && (previous == 'e' || previous == 'E'))) {
+                    position++;
+                } else {
+                    break;
+                }
+            }
+            type = TokenType.NUMBER;
+            text = content.substring(start, position);
+        } else {
+            position++;
+            type = TokenType.SYMBOL;
+            text = String.valueOf(c);
+        }
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+
+    private void skipWhitespaceAndComments() {
+        final int length = content.length();
+        while (position < length) {
+            final char c = content.charAt(position);
+            if (c == '\n') {
+                line++;
+                position++;
+            } else if (Character.isWhitespace(c)) {
+                position++;
+            } else if (c == '#' || content.startsWith("//", position)) {
+                while (position < length && content.charAt(position) != '\n') {
+                    position++;
+                }
+            } else if (content.startsWith("/*", position)) {
+                final int end = content.indexOf("*/", position + 2);
+                final int next = end < 0 ? length : end + 2;
+                for (int i = position; i < next; i++) {
+                    if (content.charAt(i) == '\n') {
+                        line++;
+                    }
+                }
+                position = next;
+            } else {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.specs.Spec;
+
+/**
+ * Matches the files which the given sources include directly or transitively, looked up like thrift does,
+ * and the directories containing them. The files are found when the spec is used first, i.e. when Gradle
+ * fingerprints the inputs, by scanning only the headers of the sources and the included files.
+ */
+final class IncludeClosure implements Spec<FileTreeElement> {
+
+    private final FileCollection sources;
+    private final FileCollection includeDirs;
+
+    // Found once per build, not stored in the configuration cache.
+    private transient volatile Set<Path> files;
+    private transient volatile Set<Path> dirs;
+
+    IncludeClosure(FileCollection sources, FileCollection includeDirs) {
+        this.sources = sources;
+        this.includeDirs = includeDirs;
+    }
+
+    @Override
+    public boolean isSatisfiedBy(FileTreeElement element) {
+        if (files == null) {
+            find();
+        }
+        final Path path = normalize(element.getFile());
+        return element.isDirectory() ? dirs.contains(path) : files.contains(path);
+    }
+
+    private synchronized void find() {
+        if (files != null) {
+            return;
+        }
+        final List<Path> searchPath = new ArrayList<>();
+        includeDirs.forEach(dir -> searchPath.add(normalize(dir)));
+        final Set<Path> found = new HashSet<>();
+        final List<Path> sourcePaths = new ArrayList<>();
+        sources.forEach(source -> {
+            // A missing source item is reported by the task.
+            if (source.isFile()) {
+                sourcePaths.add(normalize(source));
+            }
+        });
+        List<Path> scanned = sourcePaths;
+        while (!scanned.isEmpty()) {
+            final List<Path> next = new ArrayList<>();
+            ThriftSourceScanner.scan(scanned).forEach((path, header) -> {
+                for (String include : header.getIncludes()) {
+                    final Path file = lookUp(path.getParent(), include, searchPath);
+                    if (file != null && found.add(file)) {
+                        next.add(file);
+                    }
+                }
+            });
+            scanned = next;
+        }
+
+        final Set<Path> parents = new HashSet<>();
+        for (Path file : found) {
+            Path parent = file.getParent();
+            while (parent != null && parents.add(parent)) {
+                parent = parent.getParent();
+            }
+        }
+        dirs = Collections.unmodifiableSet(parents);
+        files = Collections.unmodifiableSet(found);
+    }
+
+    // The first existing file in the directory of the including file and then in the include directories.
+    private static Path lookUp(Path dir, String include, List<Path> searchPath) {
+        final Path includePath = new File(include).toPath();
+        if (includePath.isAbsolute()) {
+            return Files.isRegularFile(includePath) ? includePath.normalize() : null;
+        }
+        if (dir != null && Files.isRegularFile(dir.resolve(includePath))) {
+            return dir.resolve(includePath).normalize();
+        }
+        for (Path includeDir : searchPath) {
+            if (Files.isRegularFile(includeDir.resolve(includePath))) {
+                return includeDir.resolve(includePath).normalize();
+            }
+        }
+        return null;
+    }
+
+    private static Path normalize(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@code include} directives of thrift files, used to find the files to recompile when a file
+ * they include directly or transitively has changed.
+ */
+final class IncludeGraph implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    // Canonical path of a thrift file -> the paths of its include directives as written.
+    private final Map<String, List<String>> includes = new HashMap<>();
+
+    IncludeGraph() {}
+
+    /**
+     * Updates the include directives of the given file, or forgets it if they are {@code null}.
+     */
+    void update(File file, List<String> paths) {
+        final String path = canonicalPath(file);
+        if (paths != null) {
+            // The includes come first, so they are known even if there's a syntax error,
+            // which thrift will report anyway.
+            includes.put(path, paths);
+        } else {
+            includes.remove(path);
+        }
+    }
+
+    /**
+     * Returns the canonical paths of the given files and all files including any of them,
+     * directly or transitively.
+     */
+    Set<String> withDependents(Collection<String> files, List<File> includeDirs) {
+        final Map<String, Set<String>> includedBy = includedBy(includeDirs);
+        final Set<String> result = new LinkedHashSet<>();
+        final Deque<String> queue = new ArrayDeque<>();
+        files.forEach(file -> queue.add(canonicalPath(new File(file))));
+        while (!queue.isEmpty()) {
+            final String path = queue.poll();
+            if (result.add(path)) {
+                queue.addAll(includedBy.getOrDefault(path, Collections.emptySet()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the canonical paths of the files including each file directly.
+     */
+    Map<String, Set<String>> includedBy(List<File> includeDirs) {
+        final List<String> searchPath = searchPath(includeDirs);
+
+        // A file may include a path which can be found in more than one directory of the search path.
+        // Any of them is considered as included, so that a change never goes unnoticed.
+        final Map<String, Set<String>> includedBy = new HashMap<>();
+        includes.forEach((path, paths) -> {
+            final String dir = new File(path).getParent();
+            for (String include : paths) {
+                for (String candidate : candidates(dir, include, searchPath)) {
+                    includedBy.computeIfAbsent(candidate, unused -> new HashSet<>()).add(path);
+                }
+            }
+        });
+        return includedBy;
+    }
+
+    /**
+     * Returns the canonical paths of the given files and all files included by any of them,
+     * directly or transitively.
+     */
+    Set<String> withIncludes(Collection<String> files, List<File> includeDirs) {
+        final List<String> searchPath = searchPath(includeDirs);
+        final Set<String> result = new LinkedHashSet<>();
+        final Deque<String> queue = new ArrayDeque<>();
+        files.forEach(file -> queue.add(canonicalPath(new File(file))));
+        while (!queue.isEmpty()) {
+            final String path = queue.poll();
+            if (!result.add(path)) {
+                continue;
+            }
+            final String dir = new File(path).getParent();
+            for (String include : includes.getOrDefault(path, Collections.emptyList())) {
+                // The first known file on the search path, like thrift does.
+                for (String candidate : candidates(dir, include, searchPath)) {
+                    if (includes.containsKey(candidate)) {
+                        queue.add(candidate);
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the sources which are not included by any other of the given sources.
+     * Compiling them with {@code -r} generates the code of all the given sources.
+     */
+    List<String> roots(Collection<String> sources, List<File> includeDirs) {
+        final Map<String, String> sourcesByPath = new LinkedHashMap<>();
+        sources.forEach(source -> sourcesByPath.put(canonicalPath(new File(source)), source));
+
+        final Set<String> included = new HashSet<>();
+        sourcesByPath.keySet().forEach(path -> {
+            final Set<String> includedFiles = withIncludes(Collections.singleton(path), includeDirs);
+            includedFiles.remove(path);
+            included.addAll(includedFiles);
+        });
+
+        final List<String> roots = new ArrayList<>();
+        final Set<String> covered = new HashSet<>();
+        sourcesByPath.forEach((path, source) -> {
+            if (!included.contains(path)) {
+                roots.add(source);
+                covered.addAll(withIncludes(Collections.singleton(path), includeDirs));
+            }
+        });
+        // Sources including each other are not covered yet. Thrift will report the cycle.
+        sourcesByPath.forEach((path, source) -> {
+            if (!covered.contains(path)) {
+                roots.add(source);
+                covered.addAll(withIncludes(Collections.singleton(path), includeDirs));
+            }
+        });
+        return roots;
+    }
+
+    private static List<String> searchPath(List<File> includeDirs) {
+        final List<String> searchPath = new ArrayList<>(includeDirs.size());
+        includeDirs.forEach(includeDir -> searchPath.add(canonicalPath(includeDir)));
+        return searchPath;
+    }
+
+    // Thrift looks for an included file in the directory of the including file first,
+    // and then in the include directories in order.
+    private static List<String> candidates(String dir, String include, List<String> searchPath) {
+        final File includeFile = new File(include);
+        if (includeFile.isAbsolute()) {
+            return Collections.singletonList(includeFile.toPath().normalize().toString());
+        }
+        final List<String> candidates = new ArrayList<>(searchPath.size() + 1);
+        if (dir != null) {
+            candidates.add(new File(dir, include).toPath().normalize().toString());
+        }
+        searchPath.forEach(includeDir -> candidates.add(
+                new File(includeDir, include).toPath().normalize().toString()));
+        return candidates;
+    }
+}
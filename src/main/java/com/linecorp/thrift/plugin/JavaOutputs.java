@@ -0,0 +1,85 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The files which the java generator generates from thrift files, relative to the output directory.
+ * Thrift writes a file named after every enum, struct, union, exception and service, and a
+ * {@code <file name>Constants.java} for the constants, into the directory of the java namespace.
+ */
+final class JavaOutputs {
+
+    /**
+     * Whether the outputs of the given generators can be told from the thrift files.
+     */
+    static boolean predictable(Map<String, String> generators) {
+        return generators.size() == 1 && generators.containsKey("java");
+    }
+
+    /**
+     * Returns the files generated from the given thrift files, which are parsed in parallel.
+     */
+    static Set<String> of(Collection<String> files, boolean createGenFolder) {
+        final Set<String> outputs = ConcurrentHashMap.newKeySet();
+        files.parallelStream().forEach(file -> outputs.addAll(of(new File(file), createGenFolder)));
+        return new HashSet<>(outputs);
+    }
+
+    private static Set<String> of(File file, boolean createGenFolder) {
+        final Set<String> outputs = new HashSet<>();
+        if (!file.isFile()) {
+            return outputs;
+        }
+        final IdlDocument document = IdlParser.parse(file);
+        String namespace = document.namespaces().get("java");
+        if (namespace == null) {
+            namespace = document.namespaces().getOrDefault("*", "");
+        }
+        Path dir = Paths.get(createGenFolder ? "gen-java" : "");
+        for (String name : namespace.split("\\.")) {
+            if (!name.isEmpty()) {
+                dir = dir.resolve(name);
+            }
+        }
+        final String fileName = file.getName();
+        final String programName = fileName.endsWith(".thrift") ? fileName.substring(0, fileName.length() - 7)
+                                                                : fileName;
+        for (IdlDocument.Definition definition : document.definitions()) {
+            switch (definition.kind()) {
+                case TYPEDEF:
+                    break;
+                case CONST:
+                    outputs.add(dir.resolve(programName + "Constants.java").toString());
+                    break;
+                default:
+                    outputs.add(dir.resolve(definition.name() + ".java").toString());
+            }
+        }
+        return outputs;
+    }
+
+    private JavaOutputs() {}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.linecorp.thrift.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * The files generated from each thrift source, relative to the output directory.
+ * A generated file can belong to more than one source, e.g. the included files with {@code recurse}
+ * or the {@code index.html} of the html generator.
+ */
+final class OutputManifest implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    /**
+     * Returns the size and the last modified time of the files in the given directory,
+     * keyed by their path relative to the directory.
+     */
+    static Map<String, String> snapshot(File dir) {
+        final Map<String, String> snapshot = new HashMap<>();
+        if (!dir.isDirectory()) {
+            return snapshot;
+        }
+        final Path root = dir.toPath();
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(Files::isRegularFile).forEach(file -> {
+                final File f = file.toFile();
+                snapshot.put(root.relativize(file).toString(), f.lastModified() + ":" + f.length());
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Deletes the given files and the directories which became empty by that.
+     */
+    static void delete(File outputDir, Set<String> files) {
+        for (String path : files) {
+            File file = new File(outputDir, path);
+            if (file.exists() && !file.delete()) {
+                throw new UncheckedIOException(new IOException("Could not delete " + file));
+            }
+            file = file.getParentFile();
+            while (file != null && !file.equals(outputDir)) {
+                final String[] children = file.list();
+                if (children == null || children.length > 0 || !file.delete()) {
+                    break;
+                }
+                file = file.getParentFile();
+            }
+        }
+    }
+
+    // Canonical path of a source -> generated files.
+    private final Map<String, Set<String>> outputs = new HashMap<>();
+
+    // Generated file -> canonical paths of the sources generating it.
+    private final Map<String, Set<String>> sources = new HashMap<>();
+
+    // Generated file -> digest of its content and its last modified time, as written by sync().
+    private final Map<String, FileVersion> versions = new HashMap<>();
+
+    OutputManifest() {}
+
+    /**
+     * Creates a manifest without any source which remembers the versions of the files in the given one,
+     * because the output directory may have been cleaned since then.
+     */
+    OutputManifest(OutputManifest previous) {
+        if (previous != null) {
+            versions.putAll(previous.versions);
+        }
+    }
+
+    boolean contains(String source) {
+        return outputs.containsKey(source);
+    }
+
+    Set<String> files() {
+        return sources.keySet();
+    }
+
+    /**
+     * Forgets the versions of the files which no source generates.
+     */
+    void retainVersions() {
+        versions.keySet().retainAll(sources.keySet());
+    }
+
+    Set<String> get(String source) {
+        return new HashSet<>(outputs.getOrDefault(source, new HashSet<>()));
+    }
+
+    void record(String source, Set<String> files) {
+        remove(source);
+        outputs.put(source, new HashSet<>(files));
+        files.forEach(file -> sources.computeIfAbsent(file, unused -> new HashSet<>()).add(source));
+    }
+
+    /**
+     * Forgets the given source and returns the files which no other source generates.
+     */
+    Set<String> remove(String source) {
+        final Set<String> orphans = new HashSet<>();
+        final Set<String> files = outputs.remove(source);
+        if (files == null) {
+            return orphans;
+        }
+        for (String file : files) {
+            final Set<String> owners = sources.get(file);
+            owners.remove(source);
+            if (owners.isEmpty()) {
+                sources.remove(file);
+                versions.remove(file);
+                orphans.add(file);
+            }
+        }
+        return orphans;
+    }
+
+    /**
+     * Moves the given files from one directory to another. If {@code preserveUnchanged} is set, a file is not
+     * moved if the other directory has the same content already, which keeps the timestamps of unchanged
+     * files, and a file which was removed from the other directory gets its previous timestamp back if its
+     * content is the same as before. Returns the number of unchanged files.
+     */
+    int sync(File fromDir, File toDir, Set<String> files, boolean preserveUnchanged) {
+        int unchanged = 0;
+        try {
+            for (String file : files) {
+                final Path source = fromDir.toPath().resolve(file);
+                final Path target = toDir.toPath().resolve(file);
+                if (!preserveUnchanged) {
+                    Files.createDirectories(target.getParent());
+                    Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+                    versions.remove(file);
+                    continue;
+                }
+                final byte[] content = Files.readAllBytes(source);
+                final String digest = SourceDigests.digest(content);
+                if (Files.isRegularFile(target)) {
+                    if (Files.size(target) == content.length &&
+                        Arrays.equals(content, Files.readAllBytes(target))) {
+                        versions.put(file, new FileVersion(digest, target.toFile().lastModified()));
+                        unchanged++;
+                        continue;
+                    }
+                } else {
+                    final FileVersion previous = versions.get(file);
+                    if (previous != null && previous.digest.equals(digest)) {
+                        Files.createDirectories(target.getParent());
+                        Files.move(source, target);
+                        if (target.toFile().setLastModified(previous.lastModified)) {
+                            versions.put(file, previous);
+                            unchanged++;
+                        } else {
+                            versions.put(file, new FileVersion(digest, target.toFile().lastModified()));
+                        }
+                        continue;
+                    }
+                }
+                Files.createDirectories(target.getParent());
+                Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+                versions.put(file, new FileVersion(digest, target.toFile().lastModified()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return unchanged;
+    }
+
+    private static final class FileVersion implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String digest;
+
+        private final long lastModified;
+
+        FileVersion(String digest, long lastModified) {
+            this.digest = digest;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.linecorp.thrift.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The digests of the thrift files as they were compiled, used to skip the files which Gradle reports as changed
+ * while their content is effectively the same.
+ */
+final class SourceDigests implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static SourceDigests build(Iterable<File> files, boolean ignoreComments) {
+        final SourceDigests digests = new SourceDigests(ignoreComments);
+        files.forEach(digests::update);
+        return digests;
+    }
+
+    static String digest(byte[] content) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            final StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Removes the comments except doc comments, which are copied to the generated code, and collapses
+     * whitespace outside of literals and doc comments into a single space.
+     */
+    static String normalize(String content) {
+        final StringBuilder sb = new StringBuilder(content.length());
+        final int length = content.length();
+        boolean space = false;
+        int i = 0;
+        while (i < length) {
+            final char c = content.charAt(i);
+            final int end;
+            if (c == '"' || c == '\'') {
+                // Skips the escaped characters like the thrift lexer does.
+                int close = i + 1;
+                while (close < length && content.charAt(close) != c) {
+                    close += content.charAt(close) == '\\' ? 2 : 1;
+                }
+                end = Math.min(close + 1, length);
+            } else if (content.startsWith("/*", i)) {
+                final int close = content.indexOf("*/", i + 2);
+                end = close < 0 ? length : close + 2;
+                if (!content.startsWith("/**", i) || end - i <= 4) {
+                    space = true;
+                    i = end;
+                    continue;
+                }
+            } else if (c == '#' || content.startsWith("//", i)) {
+                final int close = content.indexOf('\n', i);
+                space = true;
+                i = close < 0 ? length : close;
+                continue;
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+                continue;
+            } else {
+                end = i + 1;
+            }
+            if (space && sb.length() > 0) {
+                sb.append(' ');
+            }
+            space = false;
+            sb.append(content, i, end);
+            i = end;
+        }
+        return sb.toString();
+    }
+
+    private final boolean ignoreComments;
+
+    // Canonical path of a thrift file -> digest of its content.
+    private final Map<String, String> digests = new HashMap<>();
+
+    private SourceDigests(boolean ignoreComments) {
+        this.ignoreComments = ignoreComments;
+    }
+
+    boolean ignoresComments() {
+        return ignoreComments;
+    }
+
+    /**
+     * Computes the digest of the given file again, or forgets it if it doesn't exist anymore.
+     * Returns whether the file has changed since the last update.
+     */
+    boolean update(File file) {
+        final String path = IncludeGraph.canonicalPath(file);
+        if (!file.isFile()) {
+            digests.remove(path);
+            return true;
+        }
+        byte[] content;
+        try {
+            content = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (ignoreComments) {
+            // Only ASCII is relevant here, and ISO-8859-1 maps every byte to a char and back.
+            content = normalize(new String(content, StandardCharsets.ISO_8859_1))
+                    .getBytes(StandardCharsets.ISO_8859_1);
+        }
+        final String digest = digest(content);
+        return !digest.equals(digests.put(path, digest));
+    }
+}
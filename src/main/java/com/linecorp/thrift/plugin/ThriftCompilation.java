@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single execution of the thrift compiler by {@link CompileThrift}.
+ */
+public final class ThriftCompilation implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    private final String taskPath;
+    private final String source;
+    private final List<String> commandLine;
+    private final long wallTimeMillis;
+    private final int exitCode;
+    private final int generatedFiles;
+    private final long generatedBytes;
+    private final List<ThriftProblem> problems;
+
+    ThriftCompilation(String taskPath, String source, List<String> commandLine, long wallTimeMillis,
+                      int exitCode, int generatedFiles, long generatedBytes, List<ThriftProblem> problems) {
+        this.taskPath = taskPath;
+        this.source = source;
+        this.commandLine = Collections.unmodifiableList(new ArrayList<>(commandLine));
+        this.wallTimeMillis = wallTimeMillis;
+        this.exitCode = exitCode;
+        this.generatedFiles = generatedFiles;
+        this.generatedBytes = generatedBytes;
+        this.problems = Collections.unmodifiableList(new ArrayList<>(problems));
+    }
+
+    public String getTaskPath() {
+        return taskPath;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public List<String> getCommandLine() {
+        return commandLine;
+    }
+
+    public long getWallTimeMillis() {
+        return wallTimeMillis;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public int getGeneratedFiles() {
+        return generatedFiles;
+    }
+
+    public long getGeneratedBytes() {
+        return generatedBytes;
+    }
+
+    public List<ThriftProblem> getProblems() {
+        return problems;
+    }
+
+    @Override
+    public String toString() {
+        return source + " (" + wallTimeMillis + " ms, exit=" + exitCode + ", " + generatedFiles + " files, " +
+               generatedBytes + " bytes)";
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gradle.api.GradleException;
+
+/**
+ * Thrown when {@link CompileThrift} failed to compile thrift files,
+ * with the errors reported by thrift for each of them.
+ */
+public class ThriftCompilationException extends GradleException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Throws if any source failed.
+     *
+     * @param failures the description of each failed source, see {@link #describe(String, int, File)}
+     */
+    static void check(Map<String, String> failures) {
+        if (!failures.isEmpty()) {
+            throw new ThriftCompilationException(failures);
+        }
+    }
+
+    static String describe(String source, int exitCode, File logFile) {
+        final StringBuilder sb = new StringBuilder(source).append(", exit=").append(exitCode);
+        boolean described = false;
+        for (ThriftProblem problem : ThriftProblem.parse(logFile)) {
+            if (problem.getSeverity() != ThriftProblem.Severity.WARNING) {
+                sb.append("\n    ").append(problem);
+                described = true;
+            }
+        }
+        // Some errors are printed without the location, e.g. an undefined type.
+        if (!described) {
+            final String tail = CompilerOutput.tail(logFile);
+            if (!tail.isEmpty()) {
+                sb.append("\n    ").append(tail.replace("\n", "\n    "));
+            }
+        }
+        return sb.toString();
+    }
+
+    private final List<String> failedSources;
+
+    // Failed source -> its description, to merge the failures of work items.
+    private final Map<String, String> failures;
+
+    ThriftCompilationException(Map<String, String> failures) {
+        super(failures.size() == 1 ? "Failed to compile " + failures.values().iterator().next()
+                                   : "Failed to compile " + failures.size() + " thrift files:\n  " +
+                                     String.join("\n  ", failures.values()));
+        failedSources = Collections.unmodifiableList(new ArrayList<>(failures.keySet()));
+        this.failures = new LinkedHashMap<>(failures);
+    }
+
+    Map<String, String> failures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Returns the sources which failed to compile.
+     */
+    public List<String> getFailedSources() {
+        return failedSources;
+    }
+}
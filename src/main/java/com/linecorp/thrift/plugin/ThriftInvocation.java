@@ -0,0 +1,62 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The command line of thrift for every source compiled by a {@link CompileThrift} execution, which is resolved
+ * once and passed to the work actions as it is.
+ */
+public final class ThriftInvocation implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String executable;
+    // -o or -out, which is followed by the output directory.
+    private final String outputOption;
+    private final List<String> arguments;
+    private final List<File> includeDirs;
+
+    ThriftInvocation(String executable, String outputOption, List<String> arguments, List<File> includeDirs) {
+        this.executable = executable;
+        this.outputOption = outputOption;
+        this.arguments = Collections.unmodifiableList(new ArrayList<>(arguments));
+        this.includeDirs = Collections.unmodifiableList(new ArrayList<>(includeDirs));
+    }
+
+    List<String> commandLine(File outputDir, String source) {
+        final List<String> cmdLine = new ArrayList<>(arguments.size() + 4);
+        cmdLine.add(executable);
+        cmdLine.add(outputOption);
+        cmdLine.add(outputDir.getAbsolutePath());
+        cmdLine.addAll(arguments);
+        cmdLine.add(source);
+        return cmdLine;
+    }
+
+    /**
+     * Returns the directories given with {@code -I}, in order.
+     */
+    List<File> includeDirs() {
+        return includeDirs;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Collects the {@link ThriftCompilation}s of all {@link CompileThrift} tasks in a build,
+ * e.g. for a build scan or a custom listener.
+ */
+public abstract class ThriftMetricsService implements BuildService<BuildServiceParameters.None> {
+
+    public static final String NAME = "thriftMetrics";
+
+    private final List<ThriftCompilation> compilations = new ArrayList<>();
+
+    public synchronized List<ThriftCompilation> getCompilations() {
+        return new ArrayList<>(compilations);
+    }
+
+    synchronized void record(Collection<ThriftCompilation> compilations) {
+        this.compilations.addAll(compilations);
+    }
+}
@@ -18,18 +18,27 @@
  */
 package com.linecorp.thrift.plugin;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.gradle.api.NamedDomainObjectProvider;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.Dependency;
+import org.gradle.api.artifacts.type.ArtifactTypeDefinition;
+import org.gradle.api.attributes.Usage;
 import org.gradle.api.file.Directory;
+import org.gradle.api.file.FileCollection;
 import org.gradle.api.plugins.JavaPlugin;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.SourceSetContainer;
+import org.gradle.api.tasks.Sync;
 import org.gradle.api.tasks.TaskProvider;
 
 public class ThriftPlugin implements Plugin<Project> {
@@ -37,11 +46,34 @@ public class ThriftPlugin implements Plugin<Project> {
     // Forked from https://github.com/jruyi/thrift-gradle-plugin/blob/aef83035ffe141b0507f5a2254aa1f7193976c4a/src/main/groovy/org/jruyi/gradle/thrift/plugin/ThriftPlugin.groovy
 
     public static final String COMPILE_THRIFT_TASK = "compileThrift";
+    public static final String PROCESS_POOL_SIZE_PROPERTY = "thriftProcessPoolSize";
+    public static final String COLLECT_THRIFT_IDL_TASK = "collectThriftIdl";
+    public static final String THRIFT_IDL_CONFIGURATION = "thriftIdl";
+    public static final String THRIFT_IDL_ELEMENTS_CONFIGURATION = "thriftIdlElements";
+    public static final String THRIFT_IDL_USAGE = "thrift-idl";
+    public static final String THRIFT_COMPILER_CONFIGURATION = "thriftCompiler";
+    public static final String THRIFT_GENERATED_SOURCE_SET = "thriftGenerated";
 
     @Override
     public void apply(Project project) {
         final CompileThriftExtension extension = createExtension(project);
-        final TaskProvider<CompileThrift> compileThriftTaskProvider = registerDefaultTask(project, extension);
+        configureCompileThriftTasks(project);
+        final NamedDomainObjectProvider<Configuration> thriftIdl = registerThriftIdlConfiguration(project);
+        final NamedDomainObjectProvider<Configuration> thriftCompiler =
+                registerThriftCompilerConfiguration(project, extension);
+        final TaskProvider<CompileThrift> compileThriftTaskProvider =
+                registerDefaultTask(project, extension, thriftIdl, thriftCompiler);
+        configureThriftIdlElements(project, compileThriftTaskProvider);
+        // The generators are known only after the build script is evaluated.
+        project.afterEvaluate(unused -> registerGeneratorTasks(project, extension, thriftIdl, thriftCompiler,
+                                                               compileThriftTaskProvider));
+        // The task generating java, which is compileThrift unless the generators are split.
+        final Provider<CompileThrift> javaTaskProvider = extension.getSplitGenerators().flatMap(split -> {
+            if (split) {
+                return project.getTasks().named(generatorTaskName("java"), CompileThrift.class);
+            }
+            return compileThriftTaskProvider;
+        });
 
         project.getPluginManager().withPlugin("java", appliedPlugin -> {
             // In the future if we start to support kotlin, we may need to let user choose which one they want
@@ -54,82 +86,335 @@ public class ThriftPlugin implements Plugin<Project> {
                 return map;
             }));
 
-            project.getTasks().named(JavaPlugin.COMPILE_JAVA_TASK_NAME).configure(task -> {
-                task.dependsOn(extension.getGenerators().flatMap(generators -> {
-                    if (generators.containsKey("java")) {
-                        return compileThriftTaskProvider;
-                    } else {
-                        return project.provider(ArrayList::new);
-                    }
-                }));
-            });
+            project.getTasks().named(JavaPlugin.COMPILE_JAVA_TASK_NAME).configure(
+                    task -> task.dependsOn(javaTask(project, extension, javaTaskProvider)));
 
             final SourceSetContainer sourceSetContainer =
                     project.getExtensions().getByType(SourceSetContainer.class);
             final SourceSet mainSourceSet = sourceSetContainer.getByName(SourceSet.MAIN_SOURCE_SET_NAME);
-            final Provider<Object> outputDirectory = extension.getGenerators().flatMap(generators -> {
-                if (generators.containsKey("java")) {
-                    return compileThriftTaskProvider
-                            .flatMap(CompileThrift::getOutputDir)
-                            .zip(compileThriftTaskProvider.flatMap(CompileThrift::getCreateGenFolder),
-                                 (directory, genFolder) -> {
-                                     if (genFolder) {
-                                         return directory.dir("gen-java");
-                                     } else {
-                                         return directory;
-                                     }
-                                 });
-                } else {
-                    return project.provider(ArrayList::new);
+            final Provider<Object> outputDirectory = javaOutputDirectory(project, extension, javaTaskProvider);
+            // The generated code is compiled on its own if generatedSourceSet is set.
+            mainSourceSet.getJava().srcDir(extension.getGeneratedSourceSet().flatMap(
+                    separate -> separate ? project.<Object>provider(ArrayList::new) : outputDirectory));
+            project.afterEvaluate(unused -> registerGeneratedSourceSet(project, extension, outputDirectory));
+
+            sourceSetContainer.configureEach(sourceSet -> {
+                if (!SourceSet.MAIN_SOURCE_SET_NAME.equals(sourceSet.getName()) &&
+                    !THRIFT_GENERATED_SOURCE_SET.equals(sourceSet.getName())) {
+                    registerSourceSetTask(project, extension, thriftIdl, thriftCompiler, sourceSet);
                 }
             });
-            mainSourceSet.getJava().srcDir(outputDirectory);
         });
     }
 
-    private TaskProvider<CompileThrift> registerDefaultTask(Project project,
-                                                            CompileThriftExtension extension) {
+    // The given task if java is generated.
+    private static Provider<Object> javaTask(Project project, CompileThriftExtension extension,
+                                             Provider<CompileThrift> javaTaskProvider) {
+        return extension.getGenerators().flatMap(generators -> {
+            if (generators.containsKey("java")) {
+                return javaTaskProvider;
+            } else {
+                return project.provider(ArrayList::new);
+            }
+        });
+    }
+
+    // The directory of the java code generated by the given task if java is generated.
+    private static Provider<Object> javaOutputDirectory(Project project, CompileThriftExtension extension,
+                                                        Provider<CompileThrift> javaTaskProvider) {
+        return extension.getGenerators().flatMap(generators -> {
+            if (generators.containsKey("java")) {
+                return javaTaskProvider
+                        .flatMap(CompileThrift::getOutputDir)
+                        .zip(javaTaskProvider.flatMap(CompileThrift::getCreateGenFolder),
+                             (directory, genFolder) -> {
+                                 if (genFolder) {
+                                     return directory.dir("gen-java");
+                                 } else {
+                                     return directory;
+                                 }
+                             });
+            } else {
+                return project.provider(ArrayList::new);
+            }
+        });
+    }
+
+    // The other source sets get their own task, e.g. compileTestThrift for src/test/thrift,
+    // which generates into its own directory independently of compileThrift.
+    private static void registerSourceSetTask(Project project, CompileThriftExtension extension,
+                                              NamedDomainObjectProvider<Configuration> thriftIdl,
+                                              NamedDomainObjectProvider<Configuration> thriftCompiler,
+                                              SourceSet sourceSet) {
+        final TaskProvider<CompileThrift> taskProvider =
+                project.getTasks().register(sourceSet.getTaskName("compile", "thrift"), CompileThrift.class);
+        taskProvider.configure(task -> {
+            configureFromExtension(project, extension, thriftIdl, thriftCompiler, task);
+            task.setDescription("Generates the code of the thrift files of the " + sourceSet.getName() +
+                                " source set.");
+            // Most source sets have no thrift files, so the conventional directory is not warned about
+            // when it doesn't exist.
+            task.getSourceItems().setFrom(
+                    project.files("src/" + sourceSet.getName() + "/thrift").filter(File::exists));
+            task.getOutputDir().set(project.getLayout().getBuildDirectory()
+                                           .dir("generated-sources/thrift-" + sourceSet.getName()));
+            // The thrift files of compileThrift can be included, and their code is generated by compileThrift.
+            // Taken from the extension, which doesn't realize compileThrift.
+            final FileCollection mainThriftDirs =
+                    project.files(sourceItems(project, extension)).filter(File::isDirectory);
+            task.getIncludeDirs().from(mainThriftDirs);
+            task.getProvidedIncludeDirs().from(mainThriftDirs);
+        });
+        project.getTasks().named(sourceSet.getCompileJavaTaskName()).configure(
+                task -> task.dependsOn(javaTask(project, extension, taskProvider)));
+        sourceSet.getJava().srcDir(javaOutputDirectory(project, extension, taskProvider));
+    }
+
+    // The generated code gets its own compileThriftGeneratedJava task, which isn't affected by the changes of
+    // hand-written code. Its classes are a part of the main output, so they are on the classpath of the main
+    // and test code, and in the jar.
+    private static void registerGeneratedSourceSet(Project project, CompileThriftExtension extension,
+                                                   Provider<Object> outputDirectory) {
+        if (!extension.getGeneratedSourceSet().getOrElse(false)) {
+            return;
+        }
+        final SourceSetContainer sourceSets = project.getExtensions().getByType(SourceSetContainer.class);
+        final SourceSet mainSourceSet = sourceSets.getByName(SourceSet.MAIN_SOURCE_SET_NAME);
+        final SourceSet generatedSourceSet = sourceSets.create(THRIFT_GENERATED_SOURCE_SET, sourceSet -> {
+            sourceSet.getJava().srcDir(outputDirectory);
+            // The dependencies of the main code, which include libthrift.
+            sourceSet.setCompileClasspath(project.getConfigurations().getByName(
+                    mainSourceSet.getCompileClasspathConfigurationName()));
+        });
+        final FileCollection generatedClasses = generatedSourceSet.getOutput().getClassesDirs();
+        mainSourceSet.setCompileClasspath(mainSourceSet.getCompileClasspath().plus(generatedClasses));
+        mainSourceSet.getOutput().dir(
+                Collections.singletonMap("builtBy", generatedSourceSet.getCompileJavaTaskName()),
+                generatedSourceSet.getJava().getDestinationDirectory());
+        // The compile classpath of other projects takes the classes variant, which has only the classesDirs.
+        addClassesVariantArtifact(project, mainSourceSet.getApiElementsConfigurationName(), generatedSourceSet);
+        addClassesVariantArtifact(project, mainSourceSet.getRuntimeElementsConfigurationName(),
+                                  generatedSourceSet);
+    }
+
+    private static void addClassesVariantArtifact(Project project, String configurationName,
+                                                  SourceSet generatedSourceSet) {
+        project.getConfigurations().named(configurationName).configure(configuration -> {
+            configuration.getOutgoing().getVariants()
+                         .matching(variant -> "classes".equals(variant.getName()))
+                         .configureEach(variant -> variant.artifact(
+                                 generatedSourceSet.getJava().getDestinationDirectory(), artifact -> {
+                                     artifact.setType(ArtifactTypeDefinition.JVM_CLASS_DIRECTORY);
+                                     artifact.builtBy(generatedSourceSet.getCompileJavaTaskName());
+                                 }));
+        });
+    }
+
+    // Also applies to the tasks created by users.
+    private static void configureCompileThriftTasks(Project project) {
+        final Provider<ThriftMetricsService> metricsService = project.getGradle().getSharedServices()
+                .registerIfAbsent(ThriftMetricsService.NAME, ThriftMetricsService.class, spec -> {});
+        // Shared by all projects, so the first project applying the plugin decides the size.
+        final int maxWorkerCount = project.getGradle().getStartParameter().getMaxWorkerCount();
+        final Provider<ThriftProcessPool> processPool = project.getGradle().getSharedServices()
+                .registerIfAbsent(ThriftProcessPool.NAME, ThriftProcessPool.class, spec -> {
+                    spec.getParameters().getMaxProcesses().set(
+                            project.getProviders().gradleProperty(PROCESS_POOL_SIZE_PROPERTY)
+                                   .map(Integer::parseInt).orElse(maxWorkerCount));
+                });
+        final Provider<Directory> reportDir = project.getLayout().getBuildDirectory().dir("reports/thrift");
+        final File toolchainCacheDir =
+                new File(project.getGradle().getGradleUserHomeDir(), ThriftToolchain.CACHE_DIR);
+        project.getTasks().withType(CompileThrift.class).configureEach(task -> {
+            task.getMetricsService().convention(metricsService);
+            task.usesService(metricsService);
+            task.getProcessPool().convention(processPool);
+            task.usesService(processPool);
+            task.getReportDir().convention(reportDir);
+            task.getToolchainCacheDir().convention(
+                    project.getLayout().dir(project.provider(() -> toolchainCacheDir)));
+            task.getLogDir().convention(
+                    project.getLayout().getBuildDirectory().dir("thrift-logs/" + task.getName()));
+        });
+    }
+
+    // A project depending on another one with thriftIdl includes its thrift files
+    // instead of generating their code again.
+    private static NamedDomainObjectProvider<Configuration> registerThriftIdlConfiguration(Project project) {
+        return project.getConfigurations().register(THRIFT_IDL_CONFIGURATION, config -> {
+            config.setDescription("Projects whose thrift files are included, and whose code is not generated.");
+            config.setCanBeConsumed(false);
+            config.getAttributes().attribute(Usage.USAGE_ATTRIBUTE,
+                                             project.getObjects().named(Usage.class, THRIFT_IDL_USAGE));
+        });
+    }
+
+    // The thrift compiler published as a Maven artifact, resolved from the repositories of the project
+    // and cached by Gradle.
+    private static NamedDomainObjectProvider<Configuration> registerThriftCompilerConfiguration(
+            Project project, CompileThriftExtension extension) {
+        return project.getConfigurations().register(THRIFT_COMPILER_CONFIGURATION, config -> {
+            config.setDescription("The thrift compiler of thriftArtifact.");
+            config.setCanBeConsumed(false);
+            config.setTransitive(false);
+            final Provider<Dependency> dependency = extension.getThriftArtifact().flatMap(
+                    artifact -> extension.getThriftVersion().zip(
+                            extension.getThriftPlatform(),
+                            (version, platform) -> project.getDependencies().create(
+                                    ThriftToolchain.artifactNotation(artifact, version, platform))));
+            config.getDependencies().addLater(dependency);
+        });
+    }
+
+    private static void configureThriftIdlElements(Project project,
+                                                   TaskProvider<CompileThrift> compileThriftTaskProvider) {
+        final TaskProvider<Sync> thriftIdlTaskProvider =
+                project.getTasks().register(COLLECT_THRIFT_IDL_TASK, Sync.class);
+        thriftIdlTaskProvider.configure(task -> {
+            task.setDescription("Collects the thrift files of compileThrift for other projects.");
+            // Not mapped from the task provider, which would make this task depend on compileThrift.
+            task.from(project.provider(() -> compileThriftTaskProvider.get().getThriftSources()));
+            task.into(project.getLayout().getBuildDirectory().dir("thrift-idl"));
+        });
+        project.getConfigurations().register(THRIFT_IDL_ELEMENTS_CONFIGURATION, config -> {
+            config.setDescription("The thrift files of compileThrift.");
+            config.setCanBeResolved(false);
+            config.getAttributes().attribute(Usage.USAGE_ATTRIBUTE,
+                                             project.getObjects().named(Usage.class, THRIFT_IDL_USAGE));
+            config.getOutgoing().artifact(thriftIdlTaskProvider.map(Sync::getDestinationDir), artifact -> {
+                artifact.setType(ArtifactTypeDefinition.DIRECTORY_TYPE);
+                artifact.builtBy(thriftIdlTaskProvider);
+            });
+        });
+    }
+
+    private TaskProvider<CompileThrift> registerDefaultTask(
+            Project project, CompileThriftExtension extension,
+            NamedDomainObjectProvider<Configuration> thriftIdl,
+            NamedDomainObjectProvider<Configuration> thriftCompiler) {
         final TaskProvider<CompileThrift> compileThriftTaskProvider =
                 project.getTasks().register(COMPILE_THRIFT_TASK, CompileThrift.class);
 
+        compileThriftTaskProvider.configure(
+                task -> configureFromExtension(project, extension, thriftIdl, thriftCompiler, task));
+        return compileThriftTaskProvider;
+    }
+
+    // Each generator gets its own task, output directory and up-to-date check, and compileThrift only
+    // depends on them.
+    private static void registerGeneratorTasks(Project project, CompileThriftExtension extension,
+                                               NamedDomainObjectProvider<Configuration> thriftIdl,
+                                               NamedDomainObjectProvider<Configuration> thriftCompiler,
+                                               TaskProvider<CompileThrift> compileThriftTaskProvider) {
+        if (!extension.getSplitGenerators().getOrElse(false)) {
+            return;
+        }
+        final List<TaskProvider<CompileThrift>> generatorTaskProviders = new ArrayList<>();
+        extension.getGenerators().get().forEach((generator, options) -> {
+            final TaskProvider<CompileThrift> generatorTaskProvider =
+                    project.getTasks().register(generatorTaskName(generator), CompileThrift.class);
+            generatorTaskProvider.configure(task -> {
+                configureFromExtension(project, extension, thriftIdl, thriftCompiler, task);
+                task.setDescription("Generates the " + generator + " code of the thrift files.");
+                task.getGenerators().set(Collections.singletonMap(generator, options));
+                task.getOutputDir().set(extension.getOutputDir().dir(generator));
+            });
+            generatorTaskProviders.add(generatorTaskProvider);
+        });
         compileThriftTaskProvider.configure(task -> {
-            task.getThriftExecutable().set(extension.getThriftExecutable());
-            task.getNowarn().set(extension.getNowarn());
-            task.getVerbose().set(extension.getVerbose());
-            task.getStrict().set(extension.getStrict());
-            task.getDebug().set(extension.getDebug());
-            task.getRecurse().set(extension.getRecurse());
-            task.getGenerators().set(extension.getGenerators());
-            task.getCreateGenFolder().set(extension.getCreateGenFolder());
-            task.getIncludeDirs().setFrom(extension.getIncludeDirs());
-            task.getOutputDir().set(extension.getOutputDir());
-
-            // Give default value for ConfigurableFileCollection,
-            // If we set this at createExtension, it's not easy to remove set one from Collection when we want
-            // to change in build.gradle. Because current convention will only allow us to append more items.
-            final Directory dir = project.getLayout().getProjectDirectory().dir("src/main/thrift");
-            // Looks like getElements can return Provider.
-            task.getSourceItems().setFrom(extension.getSourceItems().getElements().map(locations -> {
-                if (locations.isEmpty()) {
-                    return Collections.singleton(dir);
-                }
-                return locations;
-            }));
+            task.dependsOn(generatorTaskProviders);
+            task.setEnabled(false);
+        });
+    }
+
+    static String generatorTaskName(String generator) {
+        final StringBuilder name = new StringBuilder(COMPILE_THRIFT_TASK);
+        boolean upperCase = true;
+        for (char c : generator.toCharArray()) {
+            if (!Character.isLetterOrDigit(c)) {
+                upperCase = true;
+            } else if (upperCase) {
+                name.append(Character.toUpperCase(c));
+                upperCase = false;
+            } else {
+                name.append(c);
+            }
+        }
+        return name.toString();
+    }
+
+    private static void configureFromExtension(Project project, CompileThriftExtension extension,
+                                               NamedDomainObjectProvider<Configuration> thriftIdl,
+                                               NamedDomainObjectProvider<Configuration> thriftCompiler,
+                                               CompileThrift task) {
+        task.getThriftExecutable().set(extension.getThriftExecutable());
+        // The toolchain is used only if thriftVersion is set, with either thriftArtifact or thriftRepository.
+        final Provider<Object> toolchain = extension.getThriftVersion().flatMap(version -> {
+            final Provider<Object> artifact = extension.getThriftArtifact().map(unused -> thriftCompiler.get());
+            final Provider<Object> repository = extension.getThriftRepository().zip(
+                    extension.getThriftPlatform(),
+                    (dir, platform) -> dir.file(ThriftToolchain.repositoryPath(version, platform)));
+            return artifact.orElse(repository);
+        });
+        task.getThriftCompiler().setFrom(toolchain.orElse(Collections.emptyList()));
+        task.getThriftCompilerChecksum().set(extension.getThriftPlatform().flatMap(
+                platform -> extension.getThriftChecksums().map(checksums -> checksums.get(platform))));
+        task.getNowarn().set(extension.getNowarn());
+        task.getVerbose().set(extension.getVerbose());
+        task.getStrict().set(extension.getStrict());
+        task.getDebug().set(extension.getDebug());
+        task.getRecurse().set(extension.getRecurse());
+        task.getBatch().set(extension.getBatch());
+        task.getPreserveUnchangedOutputs().set(extension.getPreserveUnchangedOutputs());
+        task.getIgnoreCommentChanges().set(extension.getIgnoreCommentChanges());
+        task.getIgnoreUnusedDefinitionChanges().set(extension.getIgnoreUnusedDefinitionChanges());
+        task.getUseProcessPool().set(extension.getUseProcessPool());
+        task.getFailFast().set(extension.getFailFast());
+        task.getGenerators().set(extension.getGenerators());
+        task.getCreateGenFolder().set(extension.getCreateGenFolder());
+        task.getIncludeDirs().setFrom(extension.getIncludeDirs(), thriftIdl);
+        task.getProvidedIncludeDirs().setFrom(thriftIdl);
+        task.getOutputDir().set(extension.getOutputDir());
+        task.getMaxParallelCompilations().set(extension.getMaxParallelCompilations());
+
+        task.getSourceItems().setFrom(sourceItems(project, extension));
+    }
+
+    // Give default value for ConfigurableFileCollection,
+    // If we set this at createExtension, it's not easy to remove set one from Collection when we want
+    // to change in build.gradle. Because current convention will only allow us to append more items.
+    private static Provider<Object> sourceItems(Project project, CompileThriftExtension extension) {
+        final Directory dir = project.getLayout().getProjectDirectory().dir("src/main/thrift");
+        // Looks like getElements can return Provider.
+        return extension.getSourceItems().getElements().map(locations -> {
+            if (locations.isEmpty()) {
+                return Collections.singleton(dir);
+            }
+            return locations;
         });
-        return compileThriftTaskProvider;
     }
 
     private CompileThriftExtension createExtension(Project project) {
         final CompileThriftExtension extension = project.getExtensions().create("compileThrift",
                                                                                 CompileThriftExtension.class);
         extension.getThriftExecutable().convention("thrift");
+        extension.getThriftPlatform().convention(ThriftToolchain.detectPlatform());
         extension.getNowarn().convention(false);
         extension.getVerbose().convention(false);
         extension.getStrict().convention(false);
         extension.getDebug().convention(false);
         extension.getRecurse().convention(false);
+        extension.getBatch().convention(false);
+        extension.getPreserveUnchangedOutputs().convention(false);
+        extension.getIgnoreCommentChanges().convention(false);
+        extension.getIgnoreUnusedDefinitionChanges().convention(false);
+        extension.getUseProcessPool().convention(false);
+        extension.getSplitGenerators().convention(false);
+        extension.getFailFast().convention(true);
+        extension.getGeneratedSourceSet().convention(false);
         extension.getAutoDetectPlugin().convention(true);
         extension.getCreateGenFolder().convention(true);
+        extension.getMaxParallelCompilations().convention(1);
         extension.getOutputDir().convention(
                 project.getLayout().getBuildDirectory().dir("generated-sources/thrift"));
         return extension;
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A warning or an error reported by the thrift compiler.
+ */
+public final class ThriftProblem implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Severity {
+        WARNING,
+        ERROR,
+        FAILURE
+    }
+
+    // e.g. [WARNING:/path/to/file.thrift:12] No generator named 'foo' could be found!
+    private static final Pattern PROBLEM = Pattern.compile("^\\[(WARNING|ERROR|FAILURE):(.*):(\\d+)] ?(.*)$");
+
+    // Not to keep too many of them when thrift is very unhappy.
+    static final int MAX_PROBLEMS = 1000;
+
+    /**
+     * Reads the problems from a log file written by {@link CompilerOutput}.
+     */
+    static List<ThriftProblem> parse(File logFile) {
+        if (!logFile.isFile()) {
+            return Collections.emptyList();
+        }
+        final List<ThriftProblem> problems = new ArrayList<>();
+        // Thrift reports some problems in more than one pass.
+        final Set<String> reported = new HashSet<>();
+        // Not to fail on the bytes which are not valid in the default charset, e.g. from the content of a file.
+        final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+                                              .onMalformedInput(CodingErrorAction.REPLACE)
+                                              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(logFile.toPath()), decoder))) {
+            String line;
+            while ((line = reader.readLine()) != null && problems.size() < MAX_PROBLEMS) {
+                final Matcher matcher = PROBLEM.matcher(line.trim());
+                if (matcher.matches() && reported.add(matcher.group())) {
+                    problems.add(new ThriftProblem(Severity.valueOf(matcher.group(1)), matcher.group(2),
+                                                   Integer.parseInt(matcher.group(3)), matcher.group(4)));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return problems;
+    }
+
+    private final Severity severity;
+    private final String file;
+    private final int line;
+    private final String message;
+
+    ThriftProblem(Severity severity, String file, int line, String message) {
+        this.severity = severity;
+        this.file = file;
+        this.line = line;
+        this.message = message;
+    }
+
+    public Severity getSeverity() {
+        return severity;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return file + ':' + line + ": " + severity.name().toLowerCase(Locale.ROOT) + ": " + message;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Runs thrift for all {@link CompileThrift} tasks of a build on a bounded pool of reused threads,
+ * which start the processes directly rather than through Gradle's exec.
+ */
+public abstract class ThriftProcessPool implements BuildService<ThriftProcessPool.Parameters>, AutoCloseable {
+
+    public static final String NAME = "thriftProcessPool";
+
+    public interface Parameters extends BuildServiceParameters {
+        // The maximum number of thrift processes running at the same time in the build.
+        Property<Integer> getMaxProcesses();
+    }
+
+    static final class Execution {
+
+        private final int exitCode;
+        private final long wallTimeMillis;
+
+        Execution(int exitCode, long wallTimeMillis) {
+            this.exitCode = exitCode;
+            this.wallTimeMillis = wallTimeMillis;
+        }
+
+        int exitCode() {
+            return exitCode;
+        }
+
+        long wallTimeMillis() {
+            return wallTimeMillis;
+        }
+    }
+
+    private ExecutorService executor;
+
+    // The thrift processes which have been started and not finished yet.
+    private final Set<Process> processes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Runs thrift with the given command line. Cancelling the returned future destroys the process.
+     */
+    Future<Execution> submit(List<String> cmdLine, File workingDir, CompilerOutput output) {
+        final AtomicReference<Process> started = new AtomicReference<>();
+        final FutureTask<Execution> task =
+                new FutureTask<Execution>(() -> execute(cmdLine, workingDir, output, started)) {
+                    @Override
+                    public boolean cancel(boolean mayInterruptIfRunning) {
+                        final boolean cancelled = super.cancel(mayInterruptIfRunning);
+                        // Interrupting the thread doesn't stop reading the output of the process.
+                        destroy(started.get());
+                        return cancelled;
+                    }
+                };
+        executor().execute(task);
+        return task;
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            final AtomicInteger threads = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(
+                    Math.max(1, getParameters().getMaxProcesses().getOrElse(1)), runnable -> {
+                        final Thread thread = new Thread(runnable,
+                                                         "thrift-process-pool-" + threads.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+        return executor;
+    }
+
+    private Execution execute(List<String> cmdLine, File workingDir, CompilerOutput output,
+                              AtomicReference<Process> started) throws InterruptedException {
+        final long start = System.nanoTime();
+        final Process process;
+        try {
+            process = new ProcessBuilder(cmdLine).directory(workingDir).start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        processes.add(process);
+        try {
+            started.set(process);
+            // Cancelled before the future knew the process.
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            return execute(process, start, output);
+        } catch (InterruptedException | RuntimeException e) {
+            destroy(process);
+            throw e;
+        } finally {
+            processes.remove(process);
+        }
+    }
+
+    private static Execution execute(Process process, long start, CompilerOutput output)
+            throws InterruptedException {
+        try {
+            process.getOutputStream().close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // The standard error is read at the same time, so that the process is never blocked on either of them.
+        final Thread errorReader = new Thread(() -> copy(process.getErrorStream(), output.newStream()),
+                                              Thread.currentThread().getName() + "-stderr");
+        errorReader.setDaemon(true);
+        errorReader.start();
+        copy(process.getInputStream(), output.newStream());
+        errorReader.join();
+        final int exitCode = process.waitFor();
+        return new Execution(exitCode, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static void copy(InputStream in, OutputStream out) {
+        try (InputStream input = in; OutputStream output = out) {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                output.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Thrift has nothing to clean up, so it's killed right away.
+    private static void destroy(Process process) {
+        if (process != null) {
+            process.destroyForcibly();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        processes.forEach(ThriftProcessPool::destroy);
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reads the header of thrift files, i.e. the {@code include}, {@code cpp_include} and {@code namespace}
+ * directives, which thrift only allows before the first definition. Only the bytes up to the first definition
+ * are read, into a direct buffer reused by each thread, and nothing is allocated but the results.
+ * Many files are scanned in parallel on the common fork-join pool.
+ */
+public final class ThriftSourceScanner {
+
+    /**
+     * The header of a thrift file.
+     */
+    public static final class Header {
+
+        private final List<String> includes;
+        private final Map<String, String> namespaces;
+
+        Header(List<String> includes, Map<String, String> namespaces) {
+            this.includes = Collections.unmodifiableList(includes);
+            this.namespaces = Collections.unmodifiableMap(namespaces);
+        }
+
+        /**
+         * The paths of the include directives as written.
+         */
+        public List<String> getIncludes() {
+            return includes;
+        }
+
+        /**
+         * The namespaces by their scope, e.g. {@code java} or {@code *}.
+         */
+        public Map<String, String> getNamespaces() {
+            return namespaces;
+        }
+
+        @Override
+        public String toString() {
+            return "Header{includes=" + includes + ", namespaces=" + namespaces + '}';
+        }
+    }
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    // The number of files scanned by a fork-join task without splitting it further.
+    private static final int BATCH_SIZE = 16;
+
+    private static final byte[] INCLUDE = bytes("include");
+    private static final byte[] CPP_INCLUDE = bytes("cpp_include");
+    private static final byte[] NAMESPACE = bytes("namespace");
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE));
+
+    /**
+     * Scans the header of the given thrift file.
+     */
+    public static Header scan(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new Scanner(channel).scan();
+        }
+    }
+
+    /**
+     * Scans the headers of the given thrift files in parallel, and returns them in the same order.
+     */
+    public static Map<Path, Header> scan(Collection<Path> files) {
+        final Path[] paths = files.toArray(new Path[0]);
+        final Header[] headers = new Header[paths.length];
+        ForkJoinPool.commonPool().invoke(new ScanFiles(paths, headers, 0, paths.length));
+        final Map<Path, Header> result = new LinkedHashMap<>();
+        for (int i = 0; i < paths.length; i++) {
+            result.put(paths[i], headers[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Scans the headers of all {@code .thrift} files in the given directory and its subdirectories.
+     * The directories are walked in parallel, and the result is sorted by path.
+     */
+    public static Map<Path, Header> scanTree(Path root) {
+        final ConcurrentMap<Path, Header> headers = new ConcurrentHashMap<>();
+        ForkJoinPool.commonPool().invoke(new ScanDirectory(root, headers));
+        return new TreeMap<>(headers);
+    }
+
+    private static final class ScanFiles extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path[] paths;
+        private final transient Header[] headers;
+        private final int from;
+        private final int to;
+
+        ScanFiles(Path[] paths, Header[] headers, int from, int to) {
+            this.paths = paths;
+            this.headers = headers;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH_SIZE) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new ScanFiles(paths, headers, from, middle),
+                          new ScanFiles(paths, headers, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                try {
+                    headers[i] = scan(paths[i]);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to scan " + paths[i], e);
+                }
+            }
+        }
+    }
+
+    // Scans the files of a directory, and forks a task for each subdirectory.
+    private static final class ScanDirectory extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path dir;
+        private final transient ConcurrentMap<Path, Header> headers;
+
+        ScanDirectory(Path dir, ConcurrentMap<Path, Header> headers) {
+            this.dir = dir;
+            this.headers = headers;
+        }
+
+        @Override
+        protected void compute() {
+            final List<ScanDirectory> subdirectories = new ArrayList<>();
+            final SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isDirectory()) {
+                        subdirectories.add(new ScanDirectory(file, headers));
+                    } else if (attrs.isRegularFile() && file.getFileName().toString().endsWith(".thrift")) {
+                        headers.put(file, scan(file));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            };
+            try {
+                // Only the entries of the directory itself, which are visited as files.
+                Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, visitor);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to scan " + dir, e);
+            }
+            invokeAll(subdirectories);
+        }
+    }
+
+    // A tokenizer over the head of a file, which reads more of the file only when it needs more bytes.
+    private static final class Scanner {
+
+        private final FileChannel channel;
+        private ByteBuffer buffer;
+        private boolean eof;
+        private int position;
+
+        private final List<String> includes = new ArrayList<>();
+        private final Map<String, String> namespaces = new LinkedHashMap<>();
+
+        Scanner(FileChannel channel) {
+            this.channel = channel;
+            buffer = BUFFERS.get();
+            buffer.clear();
+            buffer.limit(0);
+        }
+
+        Header scan() throws IOException {
+            while (true) {
+                skipWhitespaceAndComments();
+                final int c = peek(position);
+                if (c == ';' || c == ',') {
+                    position++;
+                    continue;
+                }
+                final int start = position;
+                final int end = identifierEnd(start);
+                if (matches(start, end, INCLUDE) || matches(start, end, CPP_INCLUDE)) {
+                    position = end;
+                    skipWhitespaceAndComments();
+                    final String literal = literal();
+                    if (literal == null) {
+                        break;
+                    }
+                    if (matches(start, end, INCLUDE)) {
+                        includes.add(literal);
+                    }
+                } else if (matches(start, end, NAMESPACE)) {
+                    position = end;
+                    skipWhitespaceAndComments();
+                    final String scope;
+                    if (peek(position) == '*') {
+                        position++;
+                        scope = "*";
+                    } else {
+                        scope = identifier();
+                    }
+                    skipWhitespaceAndComments();
+                    final int quote = peek(position);
+                    final String name = quote == '"' || quote == '\'' ? literal() : identifier();
+                    if (scope == null || name == null) {
+                        break;
+                    }
+                    namespaces.put(scope, name);
+                    skipWhitespaceAndComments();
+                    skipAnnotations();
+                } else {
+                    // The first definition, the end of the file or a syntax error, which thrift will report.
+                    break;
+                }
+            }
+            return new Header(includes, namespaces);
+        }
+
+        private String identifier() throws IOException {
+            final int end = identifierEnd(position);
+            if (end == position) {
+                return null;
+            }
+            final String identifier = string(position, end);
+            position = end;
+            return identifier;
+        }
+
+        private String literal() throws IOException {
+            final int quote = peek(position);
+            if (quote != '"' && quote != '\'') {
+                return null;
+            }
+            int i = position + 1;
+            while (true) {
+                final int c = peek(i);
+                if (c < 0) {
+                    return null;
+                }
+                if (c == quote) {
+                    break;
+                }
+                i += c == '\\' ? 2 : 1;
+            }
+            final String literal = string(position + 1, i);
+            position = i + 1;
+            return literal;
+        }
+
+        private void skipAnnotations() throws IOException {
+            if (peek(position) != '(') {
+                return;
+            }
+            int depth = 0;
+            int c;
+            while ((c = peek(position)) >= 0) {
+                position++;
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')' && --depth == 0) {
+                    return;
+                }
+            }
+        }
+
+        private int identifierEnd(int start) throws IOException {
+            int i = start;
+            int c = peek(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_')) {
+                return start;
+            }
+            do {
+                c = peek(++i);
+            } while (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' ||
+                     c == '.');
+            return i;
+        }
+
+        private boolean matches(int start, int end, byte[] keyword) {
+            if (end - start != keyword.length) {
+                return false;
+            }
+            for (int i = 0; i < keyword.length; i++) {
+                if (buffer.get(start + i) != keyword[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void skipWhitespaceAndComments() throws IOException {
+            while (true) {
+                final int c = peek(position);
+                if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+                    position++;
+                } else if (c == '#' || c == '/' && peek(position + 1) == '/') {
+                    int next;
+                    while ((next = peek(position)) >= 0 && next != '\n') {
+                        position++;
+                    }
+                } else if (c == '/' && peek(position + 1) == '*') {
+                    position += 2;
+                    while (peek(position) >= 0 && !(peek(position) == '*' && peek(position + 1) == '/')) {
+                        position++;
+                    }
+                    position += 2;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        // Returns the byte at the given index of the file, or -1 at the end of the file.
+        private int peek(int index) throws IOException {
+            while (index >= buffer.limit()) {
+                if (eof || !fill()) {
+                    return -1;
+                }
+            }
+            return buffer.get(index) & 0xff;
+        }
+
+        // Reads more of the file after what was read so far, growing the buffer if it is full.
+        private boolean fill() throws IOException {
+            if (buffer.limit() == buffer.capacity()) {
+                final ByteBuffer larger = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+                buffer.position(0);
+                larger.put(buffer);
+                buffer = larger;
+                BUFFERS.set(larger);
+            } else {
+                buffer.position(buffer.limit());
+                buffer.limit(buffer.capacity());
+            }
+            final int read = channel.read(buffer);
+            buffer.limit(buffer.position());
+            if (read < 0) {
+                eof = true;
+                return false;
+            }
+            return read > 0 || fill();
+        }
+
+        private String string(int start, int end) {
+            final byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(start + i);
+            }
+            // Only ASCII is relevant here, and ISO-8859-1 never fails to decode.
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static byte[] bytes(String keyword) {
+        return keyword.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private ThriftSourceScanner() {}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2023 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.linecorp.thrift.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.gradle.api.GradleException;
+
+/**
+ * Resolves the thrift compiler of a version and a platform, and installs it into a cache shared by all
+ * builds using the same Gradle user home.
+ */
+final class ThriftToolchain {
+
+    static final String CACHE_DIR = "caches/thrift-toolchains";
+
+    private static final boolean IS_WINDOWS = File.separatorChar == '\\';
+
+    // Path, size and modification time of a compiler -> its SHA-256, so that the same compiler is not hashed
+    // again by every task execution in the daemon.
+    private static final Map<String, String> CHECKSUMS = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the platform of this machine, named like the classifiers of the osdetector plugin,
+     * e.g. {@code linux-x86_64} or {@code osx-aarch_64}.
+     */
+    static String detectPlatform() {
+        return normalizeOs(System.getProperty("os.name", "")) + '-' +
+               normalizeArch(System.getProperty("os.arch", ""));
+    }
+
+    private static String normalizeOs(String name) {
+        final String os = name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", "");
+        if (os.startsWith("linux")) {
+            return "linux";
+        }
+        if (os.startsWith("mac") || os.startsWith("osx") || os.startsWith("darwin")) {
+            return "osx";
+        }
+        if (os.startsWith("windows")) {
+            return "windows";
+        }
+        if (os.startsWith("freebsd")) {
+            return "freebsd";
+        }
+        return os;
+    }
+
+    private static String normalizeArch(String name) {
+        final String arch = name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", "");
+        switch (arch) {
+            case "x8664":
+            case "amd64":
+            case "x64":
+            case "em64t":
+                return "x86_64";
+            case "x8632":
+            case "x86":
+            case "i386":
+            case "i486":
+            case "i586":
+            case "i686":
+                return "x86_32";
+            case "aarch64":
+            case "arm64":
+                return "aarch_64";
+            case "ppc64le":
+                return "ppcle_64";
+            case "s390x":
+                return "s390_64";
+            default:
+                return arch;
+        }
+    }
+
+    /**
+     * Returns the file name of the compiler in a local repository, relative to the repository,
+     * e.g. {@code 0.17.0/thrift.linux-x86_64}.
+     */
+    static String repositoryPath(String version, String platform) {
+        return version + "/thrift." + platform;
+    }
+
+    /**
+     * Returns the notation of the compiler published as a Maven artifact, e.g.
+     * {@code org.example:thrift:0.17.0:linux-x86_64@exe} for {@code org.example:thrift}.
+     */
+    static String artifactNotation(String artifact, String version, String platform) {
+        return artifact + ':' + version + ':' + platform + "@exe";
+    }
+
+    /**
+     * Verifies the checksum of the given compiler if there is one, and returns its executable copy in the cache
+     * directory, which is named after its SHA-256 so that every version is installed only once.
+     */
+    static File install(File compiler, String expectedChecksum, File cacheDir) {
+        final String checksum = CHECKSUMS.computeIfAbsent(
+                compiler.getAbsolutePath() + '\0' + compiler.length() + '\0' + compiler.lastModified(),
+                unused -> sha256(compiler));
+        if (expectedChecksum != null && !expectedChecksum.trim().equalsIgnoreCase(checksum)) {
+            throw new GradleException("The SHA-256 checksum of the thrift compiler " + compiler + " is " +
+                                      checksum + ", but " + expectedChecksum.trim() + " is expected.");
+        }
+
+        final File installed = new File(new File(cacheDir, checksum), IS_WINDOWS ? "thrift.exe" : "thrift");
+        if (installed.isFile() && installed.canExecute()) {
+            return installed;
+        }
+        // Other builds may install the same compiler at the same time,
+        // so it's moved in place only when complete.
+        final Path dir = installed.toPath().getParent();
+        try {
+            Files.createDirectories(dir);
+            final Path temp = Files.createTempFile(dir, "thrift", ".tmp");
+            try {
+                Files.copy(compiler.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+                if (!temp.toFile().setExecutable(true) && !IS_WINDOWS) {
+                    throw new GradleException("Cannot make " + temp + " executable.");
+                }
+                try {
+                    Files.move(temp, installed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException | FileAlreadyExistsException e) {
+                    Files.move(temp, installed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            if (installed.isFile() && installed.canExecute()) {
+                // Installed by another build in the meantime.
+                return installed;
+            }
+            throw new UncheckedIOException("Failed to install the thrift compiler " + compiler, e);
+        }
+        return installed;
+    }
+
+    static String sha256(File file) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final byte[] buffer = new byte[65536];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the thrift compiler " + file, e);
+        }
+        final StringBuilder sb = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private ThriftToolchain() {}
+}
@@ -18,7 +18,9 @@ package com.linecorp.thrift.plugin;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -37,6 +39,12 @@ public class ThriftPluginTest {
     @TempDir
     Path projectDir;
 
+    @TempDir
+    Path relocatedProjectDir;
+
+    @TempDir
+    Path buildCacheDir;
+
     private Path buildFile;
 
     private String thriftPathExpression;
@@ -184,6 +192,33 @@ public class ThriftPluginTest {
         assertThat(gradle.getOutput()).contains("Reusing configuration cache.");
     }
 
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void configureWithoutRealizingTasks(String version) throws Exception {
+        copyFile(Paths.get("src/test/resources/test.thrift"), projectDir.resolve("src/main/thrift"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "    }\n" +
+                            "    tasks.configureEach { println \"Realized [${it.name}]\" }\n"),
+                    StandardOpenOption.APPEND);
+
+        final GradleRunner runner = GradleRunner.create()
+                                                .withProjectDir(projectDir.toFile())
+                                                .withGradleVersion(version)
+                                                .withPluginClasspath();
+        final BuildResult help = runner.withArguments("help").build();
+
+        assertThat(help.getOutput()).doesNotContain("Realized [compileThrift]", "Realized [compileTestThrift]",
+                                                    "Realized [collectThriftIdl]");
+
+        final BuildResult testThrift = runner.withArguments("compileTestThrift", "--dry-run").build();
+
+        assertThat(testThrift.getOutput()).contains("Realized [compileTestThrift]");
+        assertThat(testThrift.getOutput()).doesNotContain("Realized [compileThrift]");
+    }
+
     @ParameterizedTest
     @ValueSource(strings = { "7.6", "8.0", "8.1" })
     public void disableAutoDetectPlugin(String version) throws Exception {
@@ -553,6 +588,44 @@ public class ThriftPluginTest {
         assertThat(projectDir.resolve("build/generated-sources/thrift/gen-json/test.json")).exists();
     }
 
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void splitGenerators(String version) throws Exception {
+        copyFile(Paths.get("src/test/resources/test.thrift"), projectDir.resolve("src/main/thrift"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        splitGenerators true\n" +
+                            "        generator 'html'\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        BuildResult gradle = GradleRunner.create()
+                                         .withProjectDir(projectDir.toFile())
+                                         .withGradleVersion(version)
+                                         .withArguments("compileJava")
+                                         .withPluginClasspath()
+                                         .build();
+        assertThat(gradle.task(":compileThriftJava").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.task(":compileThriftHtml")).isNull();
+        assertThat(projectDir.resolve("build/classes/java/main")
+                             .resolve("com/linecorp/thrift/plugin/test/TestService.class")
+        ).exists();
+
+        Files.write(buildFile, Collections.singletonList("compileThrift.generator 'html', 'standalone'"),
+                    StandardOpenOption.APPEND);
+        gradle = GradleRunner.create()
+                             .withProjectDir(projectDir.toFile())
+                             .withGradleVersion(version)
+                             .withArguments("compileThrift")
+                             .withPluginClasspath()
+                             .build();
+        assertThat(gradle.task(":compileThriftHtml").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.task(":compileThriftJava").getOutcome()).isEqualTo(TaskOutcome.UP_TO_DATE);
+        assertThat(projectDir.resolve("build/generated-sources/thrift/html/gen-html/index.html")).exists();
+    }
+
     @ParameterizedTest
     @ValueSource(strings = { "7.6", "8.0", "8.1" })
     public void incremental(String version) throws Exception {
@@ -600,6 +673,1126 @@ public class ThriftPluginTest {
         assertThat(gradle.getOutput()).contains("test2.thrift");
     }
 
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void incrementalIgnoresCommentChanges(String version) throws Exception {
+        copyFile(Paths.get("src/test/resources/test.thrift"), projectDir.resolve("src/main/thrift"));
+        final Path changedFile =
+                copyFile(Paths.get("src/test/resources/test2.thrift"), projectDir.resolve("src/main/thrift"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        ignoreCommentChanges true\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final GradleRunner runner = GradleRunner.create()
+                                                .withProjectDir(projectDir.toFile())
+                                                .withGradleVersion(version)
+                                                .withArguments("compileThrift", "--info")
+                                                .withPluginClasspath();
+        runner.build();
+
+        Files.write(changedFile,
+                    Collections.singletonList(
+                            "# A comment\n" +
+                            "    /* Another comment */   // And one more\n"),
+                    StandardOpenOption.APPEND);
+
+        BuildResult gradle = runner.build();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.getOutput()).contains("Skipping 1 thrift files without effective changes");
+        assertThat(gradle.getOutput()).doesNotContain("Starting process");
+
+        // Doc comments are copied to the generated code.
+        Files.write(changedFile,
+                    Collections.singletonList(
+                            "/** A doc comment */\n" +
+                            "struct TestStruct3 {}\n"),
+                    StandardOpenOption.APPEND);
+
+        gradle = runner.build();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.getOutput()).doesNotContain("test.thrift");
+        assertThat(gradle.getOutput()).contains("test2.thrift");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void incrementalDetectsChangesAfterEscapedQuotes(String version) throws Exception {
+        final Path sourceDir = projectDir.resolve("src/main/thrift");
+        Files.createDirectories(sourceDir);
+        final Path changedFile = sourceDir.resolve("constants.thrift");
+        Files.write(changedFile, Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "const string GREETING = \"a\\\" // one\"\n"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        ignoreCommentChanges true\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final GradleRunner runner = GradleRunner.create()
+                                                .withProjectDir(projectDir.toFile())
+                                                .withGradleVersion(version)
+                                                .withArguments("compileThrift", "--info")
+                                                .withPluginClasspath();
+        runner.build();
+
+        // Not a comment, because the quote before it is escaped.
+        Files.write(changedFile, Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "const string GREETING = \"a\\\" // two\"\n"));
+
+        final BuildResult gradle = runner.build();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.getOutput()).doesNotContain("Skipping 1 thrift files without effective changes");
+        final Path constants = projectDir.resolve("build/generated-sources/thrift/gen-java")
+                                         .resolve("com/linecorp/thrift/plugin/test/constantsConstants.java");
+        assertThat(new String(Files.readAllBytes(constants), StandardCharsets.UTF_8)).contains("// two");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void ignoreNonThriftFiles(String version) throws Exception {
+        copyFile(Paths.get("src/test/resources/test.thrift"), projectDir.resolve("src/main/thrift"));
+        final Path otherFile = projectDir.resolve("src/main/thrift/README.md");
+        Files.write(otherFile, Collections.singletonList("# IDL"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final GradleRunner runner = GradleRunner.create()
+                                                .withProjectDir(projectDir.toFile())
+                                                .withGradleVersion(version)
+                                                .withArguments("compileThrift", "--info")
+                                                .withPluginClasspath();
+        runner.build();
+
+        Files.write(otherFile, Collections.singletonList("More"), StandardOpenOption.APPEND);
+
+        final BuildResult gradle = runner.build();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.UP_TO_DATE);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void incrementalRecompilesDependents(String version) throws Exception {
+        final Path sourceDir = projectDir.resolve("src/main/thrift");
+        final Path includeDir = projectDir.resolve("include");
+        Files.createDirectories(sourceDir);
+        Files.createDirectories(includeDir);
+        final Path common = includeDir.resolve("common.thrift");
+        Files.write(common, Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "struct Common {\n" +
+                "    1:required i32 num = 0,\n" +
+                "}\n"));
+        Files.write(sourceDir.resolve("direct.thrift"), Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "include \"common.thrift\"\n" +
+                "struct Direct {\n" +
+                "    1:required common.Common common,\n" +
+                "}\n"));
+        Files.write(sourceDir.resolve("transitive.thrift"), Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "include \"direct.thrift\"\n" +
+                "struct Transitive {\n" +
+                "    1:required direct.Direct direct,\n" +
+                "}\n"));
+        copyFile(Paths.get("src/test/resources/test.thrift"), sourceDir);
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        includeDirs.from(\"include\")\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final GradleRunner runner = GradleRunner.create()
+                                                .withProjectDir(projectDir.toFile())
+                                                .withGradleVersion(version)
+                                                .withArguments("compileThrift", "--info")
+                                                .withPluginClasspath();
+        runner.build();
+
+        Files.write(common,
+                    Collections.singletonList(
+                            "struct Common2 {\n" +
+                            "    1:required i32 num = 0,\n" +
+                            "}\n"),
+                    StandardOpenOption.APPEND);
+
+        final BuildResult gradle = runner.build();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.getOutput()).contains("direct.thrift");
+        assertThat(gradle.getOutput()).contains("transitive.thrift");
+        assertThat(gradle.getOutput()).doesNotContain("test.thrift");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void incrementalIgnoresUnusedDefinitionChanges(String version) throws Exception {
+        final Path sourceDir = projectDir.resolve("src/main/thrift");
+        Files.createDirectories(sourceDir);
+        final Path common = sourceDir.resolve("common.thrift");
+        Files.write(common, Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "struct Common {\n" +
+                "    1:required i32 num = 0,\n" +
+                "}\n"));
+        Files.write(sourceDir.resolve("direct.thrift"), Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "include \"common.thrift\"\n" +
+                "struct Direct {\n" +
+                "    1:required common.Common common,\n" +
+                "}\n"));
+        Files.write(sourceDir.resolve("transitive.thrift"), Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "include \"direct.thrift\"\n" +
+                "struct Transitive {\n" +
+                "    1:required direct.Direct direct,\n" +
+                "}\n"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        ignoreUnusedDefinitionChanges true\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final GradleRunner runner = GradleRunner.create()
+                                                .withProjectDir(projectDir.toFile())
+                                                .withGradleVersion(version)
+                                                .withArguments("compileThrift", "--info")
+                                                .withPluginClasspath();
+        runner.build();
+
+        Files.write(common,
+                    Collections.singletonList(
+                            "struct Common2 {\n" +
+                            "    1:required i32 num = 0,\n" +
+                            "}\n"),
+                    StandardOpenOption.APPEND);
+        final BuildResult unused = runner.build();
+
+        assertThat(unused.getOutput()).contains(
+                "Skipping 2 thrift files which don't use the changed definitions");
+        assertThat(unused.getOutput()).doesNotContain("--gen java " + sourceDir.toFile().getCanonicalPath() +
+                                                      "/direct.thrift");
+        assertThat(projectDir.resolve("build/generated-sources/thrift/gen-java")
+                             .resolve("com/linecorp/thrift/plugin/test/Common2.java")
+        ).exists();
+
+        Files.write(common, Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "struct Common {\n" +
+                "    1:required i64 num = 0,\n" +
+                "}\n"));
+        final BuildResult used = runner.build();
+
+        assertThat(used.getOutput()).contains("--gen java " + sourceDir.toFile().getCanonicalPath() +
+                                              "/direct.thrift");
+        assertThat(used.getOutput()).contains("--gen java " + sourceDir.toFile().getCanonicalPath() +
+                                              "/transitive.thrift");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void incrementalRecompilesUsersOfLiteralsWithEscapedQuotes(String version) throws Exception {
+        final Path sourceDir = projectDir.resolve("src/main/thrift");
+        Files.createDirectories(sourceDir);
+        final Path common = sourceDir.resolve("common.thrift");
+        Files.write(common, Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "const string GREETING = \"a\\\" // one\"\n"));
+        Files.write(sourceDir.resolve("direct.thrift"), Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "include \"common.thrift\"\n" +
+                "struct Direct {\n" +
+                "    1:optional string greeting = common.GREETING,\n" +
+                "}\n"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        ignoreUnusedDefinitionChanges true\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final GradleRunner runner = GradleRunner.create()
+                                                .withProjectDir(projectDir.toFile())
+                                                .withGradleVersion(version)
+                                                .withArguments("compileThrift", "--info")
+                                                .withPluginClasspath();
+        runner.build();
+
+        // The change is after the escaped quote, so it's still in the literal.
+        Files.write(common, Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "const string GREETING = \"a\\\" // two\"\n"));
+        final BuildResult gradle = runner.build();
+
+        assertThat(gradle.getOutput()).doesNotContain(
+                "Skipping 1 thrift files which don't use the changed definitions");
+        assertThat(gradle.getOutput()).contains("--gen java " + sourceDir.toFile().getCanonicalPath() +
+                                                "/direct.thrift");
+        final Path direct = projectDir.resolve("build/generated-sources/thrift/gen-java")
+                                      .resolve("com/linecorp/thrift/plugin/test/Direct.java");
+        assertThat(new String(Files.readAllBytes(direct), StandardCharsets.UTF_8)).contains("// two");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void scanThriftHeaders(String version) throws Exception {
+        final Path sourceDir = projectDir.resolve("src/main/thrift/nested");
+        Files.createDirectories(sourceDir);
+        Files.write(sourceDir.resolve("scanned.thrift"), Collections.singletonList(
+                "// include \"commented.thrift\"\n" +
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "include \"common.thrift\"\n" +
+                "struct Scanned {\n" +
+                "    1:required common.Common common,\n" +
+                "}\n" +
+                "include \"ignored.thrift\"\n"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    tasks.register('scan') {\n" +
+                            "        doLast {\n" +
+                            "            com.linecorp.thrift.plugin.ThriftSourceScanner\n" +
+                            "                .scanTree(file('src/main/thrift').toPath())\n" +
+                            "                .each { path, header -> println \"${path.fileName} $header\" }\n" +
+                            "        }\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final BuildResult result = GradleRunner.create()
+                                               .withProjectDir(projectDir.toFile())
+                                               .withGradleVersion(version)
+                                               .withArguments("scan")
+                                               .withPluginClasspath()
+                                               .build();
+
+        assertThat(result.getOutput()).contains(
+                "scanned.thrift Header{includes=[common.thrift], " +
+                "namespaces={java=com.linecorp.thrift.plugin.test}}");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void incrementalRemoval(String version) throws Exception {
+        copyFile(Paths.get("src/test/resources/test.thrift"), projectDir.resolve("src/main/thrift"));
+        final Path removedFile =
+                copyFile(Paths.get("src/test/resources/test2.thrift"), projectDir.resolve("src/main/thrift"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final GradleRunner runner = GradleRunner.create()
+                                                .withProjectDir(projectDir.toFile())
+                                                .withGradleVersion(version)
+                                                .withArguments("compileThrift", "--info")
+                                                .withPluginClasspath();
+        runner.build();
+        final Path generatedDir = projectDir.resolve("build/generated-sources/thrift/gen-java")
+                                            .resolve("com/linecorp/thrift/plugin/test");
+        assertThat(generatedDir.resolve("TestService2.java")).exists();
+
+        Files.delete(removedFile);
+
+        final BuildResult gradle = runner.build();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.getOutput()).doesNotContain("test.thrift");
+        assertThat(generatedDir.resolve("TestService2.java")).doesNotExist();
+        assertThat(generatedDir.resolve("TestStruct2.java")).doesNotExist();
+        assertThat(generatedDir.resolve("TestService.java")).exists();
+        assertThat(generatedDir.resolve("TestStruct.java")).exists();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void fullCompilationRemovesOnlyOrphans(String version) throws Exception {
+        final Path sourceDir = projectDir.resolve("src/main/thrift");
+        Files.createDirectories(sourceDir);
+        final Path source = sourceDir.resolve("orphans.thrift");
+        Files.write(source, Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "const i32 NUM = 1\n" +
+                "struct Kept {}\n" +
+                "struct Removed {}\n"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        createGenFolder false\n" +
+                            "        ignoreCommentChanges project.hasProperty('ignoreComments')\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final GradleRunner runner = GradleRunner.create()
+                                                .withProjectDir(projectDir.toFile())
+                                                .withGradleVersion(version)
+                                                .withPluginClasspath();
+        runner.withArguments("compileThrift", "--info").build();
+        final Path generatedDir = projectDir.resolve("build/generated-sources/thrift")
+                                            .resolve("com/linecorp/thrift/plugin/test");
+        assertThat(generatedDir.resolve("Removed.java")).exists();
+        assertThat(generatedDir.resolve("orphansConstants.java")).exists();
+
+        Files.write(source, Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "struct Kept {}\n"));
+        // Changing ignoreCommentChanges compiles everything again without cleaning outputDir.
+        final BuildResult result =
+                runner.withArguments("compileThrift", "--info", "-PignoreComments").build();
+
+        assertThat(result.getOutput()).contains("Removing 2 files which no thrift file generates");
+        assertThat(generatedDir.resolve("Removed.java")).doesNotExist();
+        assertThat(generatedDir.resolve("orphansConstants.java")).doesNotExist();
+        assertThat(generatedDir.resolve("Kept.java")).exists();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void preserveUnchangedOutputs(String version) throws Exception {
+        copyFile(Paths.get("src/test/resources/test.thrift"), projectDir.resolve("src/main/thrift"));
+        final Path changedFile =
+                copyFile(Paths.get("src/test/resources/test2.thrift"), projectDir.resolve("src/main/thrift"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        preserveUnchangedOutputs true\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final GradleRunner runner = GradleRunner.create()
+                                                .withProjectDir(projectDir.toFile())
+                                                .withGradleVersion(version)
+                                                .withArguments("compileThrift", "--rerun-tasks")
+                                                .withPluginClasspath();
+        runner.build();
+        final Path generatedDir = projectDir.resolve("build/generated-sources/thrift/gen-java")
+                                            .resolve("com/linecorp/thrift/plugin/test");
+        final long lastModified = generatedDir.resolve("TestStruct.java").toFile().lastModified();
+        Files.write(generatedDir.resolve("Stale.java"), Collections.singletonList("class Stale {}"));
+        Files.write(changedFile, Collections.singletonList("struct AddedStruct {}"),
+                    StandardOpenOption.APPEND);
+
+        final BuildResult gradle = runner.build();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(generatedDir.resolve("TestStruct.java").toFile().lastModified()).isEqualTo(lastModified);
+        assertThat(generatedDir.resolve("AddedStruct.java")).exists();
+        assertThat(generatedDir.resolve("Stale.java")).doesNotExist();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void compileRootsInBatchMode(String version) throws Exception {
+        final Path sourceDir = projectDir.resolve("src/main/thrift");
+        copyFile(Paths.get("src/test/resources/test.thrift"), sourceDir);
+        Files.write(sourceDir.resolve("root.thrift"), Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "include \"test.thrift\"\n" +
+                "struct Root {\n" +
+                "    1:required test.TestStruct test,\n" +
+                "}\n"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        batch true\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final BuildResult gradle = GradleRunner.create()
+                                               .withProjectDir(projectDir.toFile())
+                                               .withGradleVersion(version)
+                                               .withArguments("compileJava", "--info")
+                                               .withPluginClasspath()
+                                               .build();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.getOutput()).contains(
+                "-r " + projectDir.toFile().getCanonicalPath() + "/src/main/thrift/root.thrift");
+        assertThat(gradle.getOutput()).doesNotContain(
+                "-r " + projectDir.toFile().getCanonicalPath() + "/src/main/thrift/test.thrift");
+        assertThat(projectDir.resolve("build/generated-sources/thrift/gen-java")
+                             .resolve("com/linecorp/thrift/plugin/test/Root.java")
+        ).exists();
+        assertThat(projectDir.resolve("build/generated-sources/thrift/gen-java")
+                             .resolve("com/linecorp/thrift/plugin/test/TestService.java")
+        ).exists();
+        assertThat(projectDir.resolve("build/classes/java/main")
+                             .resolve("com/linecorp/thrift/plugin/test/TestStruct.class")
+        ).exists();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void reportCompilations(String version) throws Exception {
+        copyFile(Paths.get("src/test/resources/test.thrift"), projectDir.resolve("src/main/thrift"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "    }\n" +
+                            "    def metrics = gradle.sharedServices.registerIfAbsent(\"thriftMetrics\",\n" +
+                            "            com.linecorp.thrift.plugin.ThriftMetricsService) {}\n" +
+                            "    tasks.register(\"printMetrics\") {\n" +
+                            "        usesService(metrics)\n" +
+                            "        dependsOn(\"compileThrift\")\n" +
+                            "        doLast {\n" +
+                            "            metrics.get().compilations.each {\n" +
+                            "                println \"Metrics: ${it.taskPath} ${it.exitCode} \" +\n" +
+                            "                        \"${it.generatedFiles}\"\n" +
+                            "            }\n" +
+                            "        }\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final BuildResult gradle = GradleRunner.create()
+                                               .withProjectDir(projectDir.toFile())
+                                               .withGradleVersion(version)
+                                               .withArguments("printMetrics", "--info")
+                                               .withPluginClasspath()
+                                               .build();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.getOutput()).contains("Ran thrift 1 times");
+        assertThat(gradle.getOutput()).contains("Metrics: :compileThrift 0 2");
+        final Path reportDir = projectDir.resolve("build/reports/thrift");
+        final String json = new String(Files.readAllBytes(reportDir.resolve("compileThrift.json")),
+                                       StandardCharsets.UTF_8);
+        assertThat(json).contains("test.thrift", "\"exitCode\": 0", "\"generatedFiles\": 2");
+        assertThat(reportDir.resolve("compileThrift.csv")).exists();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void captureCompilerOutput(String version) throws Exception {
+        Files.createDirectories(projectDir.resolve("src/main/thrift"));
+        Files.write(projectDir.resolve("src/main/thrift/warning.thrift"),
+                    Collections.singletonList("namespace java warning\nstruct Warning { i32 a }"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        verbose true\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final BuildResult gradle = GradleRunner.create()
+                                               .withProjectDir(projectDir.toFile())
+                                               .withGradleVersion(version)
+                                               .withArguments("compileThrift")
+                                               .withPluginClasspath()
+                                               .build();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.getOutput()).contains("src/main/thrift/warning.thrift:2: warning: No field key");
+        assertThat(gradle.getOutput()).doesNotContain("Scanning");
+        final Path logFile = projectDir.resolve("build/thrift-logs/compileThrift")
+                                       .resolve("src/main/thrift/warning.thrift.log");
+        assertThat(new String(Files.readAllBytes(logFile), StandardCharsets.UTF_8)).contains("Scanning");
+        final Path reportFile = projectDir.resolve("build/reports/thrift/compileThrift.json");
+        final String json = new String(Files.readAllBytes(reportFile), StandardCharsets.UTF_8);
+        assertThat(json).contains("\"severity\": \"WARNING\"", "\"line\": 2");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void reportProblemsWithMalformedOutput(String version) throws Exception {
+        Files.createDirectories(projectDir.resolve("src/main/thrift"));
+        // Thrift prints the invalid bytes of the last token as they are.
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write("namespace java malformed\nstruct Malformed { 1: i32 a }\n"
+                              .getBytes(StandardCharsets.UTF_8));
+        content.write(new byte[] { (byte) 0xff, (byte) 0xfe, '\n' });
+        Files.write(projectDir.resolve("src/main/thrift/malformed.thrift"), content.toByteArray());
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final BuildResult gradle = GradleRunner.create()
+                                               .withProjectDir(projectDir.toFile())
+                                               .withGradleVersion(version)
+                                               .withArguments("compileThrift")
+                                               .withPluginClasspath()
+                                               .buildAndFail();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.FAILED);
+        assertThat(gradle.getOutput()).contains("src/main/thrift/malformed.thrift:3: error:");
+        assertThat(gradle.getOutput()).doesNotContain("MalformedInputException");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void skipThriftIdlOfOtherProjects(String version) throws Exception {
+        Files.write(projectDir.resolve("settings.gradle"), Collections.singletonList("include 'common'"));
+        Files.createDirectories(projectDir.resolve("common/src/main/thrift"));
+        Files.write(projectDir.resolve("common/build.gradle"),
+                    Collections.singletonList(
+                            "    plugins { \n" +
+                            "        id \"com.linecorp.thrift-gradle-plugin\" \n" +
+                            "    }"));
+        Files.write(projectDir.resolve("common/src/main/thrift/shared.thrift"),
+                    Collections.singletonList("namespace java shared\nstruct Shared { 1: i32 a }"));
+        Files.createDirectories(projectDir.resolve("src/main/thrift"));
+        Files.write(projectDir.resolve("src/main/thrift/main.thrift"),
+                    Collections.singletonList("namespace java main\ninclude \"shared.thrift\"\n" +
+                                              "struct Main { 1: shared.Shared a }"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    dependencies {\n" +
+                            "        thriftIdl project(':common')\n" +
+                            "    }\n" +
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        recurse true\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final BuildResult gradle = GradleRunner.create()
+                                               .withProjectDir(projectDir.toFile())
+                                               .withGradleVersion(version)
+                                               .withArguments("compileThrift", "--info")
+                                               .withPluginClasspath()
+                                               .build();
+
+        assertThat(gradle.task(":common:collectThriftIdl").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.getOutput()).contains("Skipping 1 included thrift files provided by other projects");
+        assertThat(projectDir.resolve("build/generated-sources/thrift/gen-java/main/Main.java")).exists();
+        assertThat(projectDir.resolve("build/generated-sources/thrift/gen-java/shared/Shared.java"))
+                .doesNotExist();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void generateJavaInParallel(String version) throws Exception {
+        copyFile(Paths.get("src/test/resources/test.thrift"), projectDir.resolve("src/main/thrift"));
+        copyFile(Paths.get("src/test/resources/test2.thrift"), projectDir.resolve("src/main/thrift"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        maxParallelCompilations 2\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final BuildResult gradle = GradleRunner.create()
+                                               .withProjectDir(projectDir.toFile())
+                                               .withGradleVersion(version)
+                                               .withArguments("compileJava", "--info")
+                                               .withPluginClasspath()
+                                               .build();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(projectDir.resolve("build/generated-sources/thrift/gen-java")
+                             .resolve("com/linecorp/thrift/plugin/test/TestService.java")
+        ).exists();
+        assertThat(projectDir.resolve("build/generated-sources/thrift/gen-java")
+                             .resolve("com/linecorp/thrift/plugin/test/TestService2.java")
+        ).exists();
+
+        assertThat(projectDir.resolve("build/classes/java/main")
+                             .resolve("com/linecorp/thrift/plugin/test/TestService2.class")
+        ).exists();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void reportAllFailuresInParallel(String version) throws Exception {
+        Files.createDirectories(projectDir.resolve("src/main/thrift"));
+        Files.write(projectDir.resolve("src/main/thrift/broken1.thrift"),
+                    Collections.singletonList("struct Broken1 {"));
+        Files.write(projectDir.resolve("src/main/thrift/broken2.thrift"),
+                    Collections.singletonList("struct Broken2 {"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        maxParallelCompilations 2\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final BuildResult gradle = GradleRunner.create()
+                                               .withProjectDir(projectDir.toFile())
+                                               .withGradleVersion(version)
+                                               .withArguments("compileThrift")
+                                               .withPluginClasspath()
+                                               .buildAndFail();
+
+        final String thriftDir = projectDir.toFile().getCanonicalPath() + "/src/main/thrift/";
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.FAILED);
+        assertThat(gradle.getOutput()).contains("Failed to compile 2 thrift files:");
+        assertThat(gradle.getOutput()).contains(thriftDir + "broken1.thrift, exit=1",
+                                                thriftDir + "broken2.thrift, exit=1");
+        assertThat(gradle.getOutput()).doesNotContain("There were multiple failures",
+                                                      "A failure occurred while executing");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void reportErrorsWithoutLocation(String version) throws Exception {
+        Files.createDirectories(projectDir.resolve("src/main/thrift"));
+        Files.write(projectDir.resolve("src/main/thrift/undefined.thrift"),
+                    Collections.singletonList("namespace java undefined\n" +
+                                              "struct Undefined { 1: NoSuchType a }"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final BuildResult gradle = GradleRunner.create()
+                                               .withProjectDir(projectDir.toFile())
+                                               .withGradleVersion(version)
+                                               .withArguments("compileThrift")
+                                               .withPluginClasspath()
+                                               .buildAndFail();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.FAILED);
+        // In the failure rather than only in the logged output.
+        assertThat(gradle.getOutput()).contains("undefined.thrift, exit=1\n" +
+                                                "      Type \"NoSuchType\" not defined");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void compileInProcessPool(String version) throws Exception {
+        copyFile(Paths.get("src/test/resources/test.thrift"), projectDir.resolve("src/main/thrift"));
+        copyFile(Paths.get("src/test/resources/test2.thrift"), projectDir.resolve("src/main/thrift"));
+        Files.write(projectDir.resolve("src/main/thrift/broken.thrift"),
+                    Collections.singletonList("struct Broken {"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        useProcessPool true\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final GradleRunner runner = GradleRunner.create()
+                                                .withProjectDir(projectDir.toFile())
+                                                .withGradleVersion(version)
+                                                .withArguments("compileThrift", "--info",
+                                                               "-PthriftProcessPoolSize=2")
+                                                .withPluginClasspath();
+        BuildResult gradle = runner.buildAndFail();
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.FAILED);
+        assertThat(gradle.getOutput()).contains("Submitting thrift to the process pool");
+        assertThat(gradle.getOutput()).contains("Failed to compile " + projectDir.toFile().getCanonicalPath() +
+                                                "/src/main/thrift/broken.thrift");
+
+        Files.delete(projectDir.resolve("src/main/thrift/broken.thrift"));
+        gradle = runner.build();
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(projectDir.resolve("build/generated-sources/thrift/gen-java")
+                             .resolve("com/linecorp/thrift/plugin/test/TestService.java")
+        ).exists();
+        assertThat(projectDir.resolve("build/generated-sources/thrift/gen-java")
+                             .resolve("com/linecorp/thrift/plugin/test/TestService2.java")
+        ).exists();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void reportAllFailuresWithoutFailFast(String version) throws Exception {
+        Files.createDirectories(projectDir.resolve("src/main/thrift"));
+        Files.write(projectDir.resolve("src/main/thrift/broken1.thrift"),
+                    Collections.singletonList("struct Broken1 {"));
+        Files.write(projectDir.resolve("src/main/thrift/broken2.thrift"),
+                    Collections.singletonList("include \"broken1.thrift\"\nstruct Broken2 {}"));
+        Files.write(projectDir.resolve("src/main/thrift/broken3.thrift"),
+                    Collections.singletonList("struct Broken3 {"));
+        Files.write(projectDir.resolve("src/main/thrift/valid.thrift"),
+                    Collections.singletonList("namespace java valid\nstruct Valid { 1: i32 a }"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        failFast false\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final BuildResult gradle = GradleRunner.create()
+                                               .withProjectDir(projectDir.toFile())
+                                               .withGradleVersion(version)
+                                               .withArguments("compileThrift")
+                                               .withPluginClasspath()
+                                               .buildAndFail();
+
+        final String thriftDir = projectDir.toFile().getCanonicalPath() + "/src/main/thrift/";
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.FAILED);
+        assertThat(gradle.getOutput()).contains("Failed to compile 2 thrift files:");
+        assertThat(gradle.getOutput()).contains(thriftDir + "broken1.thrift, exit=1",
+                                                thriftDir + "broken3.thrift, exit=1");
+        assertThat(gradle.getOutput()).contains("Skipping " + thriftDir + "broken2.thrift");
+        assertThat(projectDir.resolve("build/generated-sources/thrift/gen-java/valid/Valid.java")).exists();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void compileGeneratedSourceSet(String version) throws Exception {
+        copyFile(Paths.get("src/test/resources/test.thrift"), projectDir.resolve("src/main/thrift"));
+        final Path mainDir = projectDir.resolve("src/main/java/com/example");
+        Files.createDirectories(mainDir);
+        Files.write(mainDir.resolve("Main.java"),
+                    Collections.singletonList(
+                            "package com.example;\n" +
+                            "public class Main {\n" +
+                            "    com.linecorp.thrift.plugin.test.TestStruct struct;\n" +
+                            "}"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        generatedSourceSet true\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final GradleRunner runner = GradleRunner.create()
+                                                .withProjectDir(projectDir.toFile())
+                                                .withGradleVersion(version)
+                                                .withArguments("jar")
+                                                .withPluginClasspath();
+        final BuildResult first = runner.build();
+
+        assertThat(first.task(":compileThriftGeneratedJava").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(projectDir.resolve("build/classes/java/thriftGenerated")
+                             .resolve("com/linecorp/thrift/plugin/test/TestStruct.class")
+        ).exists();
+        assertThat(projectDir.resolve("build/classes/java/main")
+                             .resolve("com/linecorp/thrift/plugin/test/TestStruct.class")
+        ).doesNotExist();
+
+        Files.write(mainDir.resolve("Main.java"),
+                    Collections.singletonList(
+                            "package com.example;\n" +
+                            "public class Main {\n" +
+                            "    com.linecorp.thrift.plugin.test.TestStruct struct, other;\n" +
+                            "}"));
+        final BuildResult gradle = runner.build();
+
+        assertThat(gradle.task(":compileThriftGeneratedJava").getOutcome()).isEqualTo(TaskOutcome.UP_TO_DATE);
+        assertThat(gradle.task(":compileJava").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void compileAgainstGeneratedSourceSetOfOtherProject(String version) throws Exception {
+        Files.write(projectDir.resolve("settings.gradle"), Collections.singletonList("include 'lib'"));
+        copyFile(Paths.get("src/test/resources/test.thrift"), projectDir.resolve("lib/src/main/thrift"));
+        Files.write(projectDir.resolve("lib/build.gradle"),
+                    Collections.singletonList(
+                            "    plugins { \n" +
+                            "        id \"java-library\" \n" +
+                            "        id \"com.linecorp.thrift-gradle-plugin\" \n" +
+                            "        id \"com.google.osdetector\" \n" +
+                            "    }\n" +
+                            "    repositories {\n" +
+                            "        mavenCentral()\n" +
+                            "    }\n" +
+                            "    dependencies {\n" +
+                            "        api 'javax.annotation:javax.annotation-api:1.3.2'\n" +
+                            "        api 'org.slf4j:slf4j-api:2.0.7'\n" +
+                            "        api 'org.apache.thrift:libthrift:0.17.0'\n" +
+                            "    }\n" +
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        generatedSourceSet true\n" +
+                            "    }\n"));
+        final Path mainDir = projectDir.resolve("src/main/java/com/example");
+        Files.createDirectories(mainDir);
+        Files.write(mainDir.resolve("Main.java"),
+                    Collections.singletonList(
+                            "package com.example;\n" +
+                            "public class Main {\n" +
+                            "    com.linecorp.thrift.plugin.test.TestStruct struct;\n" +
+                            "}"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    dependencies {\n" +
+                            "        implementation project(':lib')\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final BuildResult gradle = GradleRunner.create()
+                                               .withProjectDir(projectDir.toFile())
+                                               .withGradleVersion(version)
+                                               .withArguments("compileJava")
+                                               .withPluginClasspath()
+                                               .build();
+
+        assertThat(gradle.task(":lib:compileThriftGeneratedJava").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.task(":compileJava").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void compileTestSourceSet(String version) throws Exception {
+        copyFile(Paths.get("src/test/resources/test.thrift"), projectDir.resolve("src/main/thrift"));
+        Files.createDirectories(projectDir.resolve("src/test/thrift"));
+        Files.write(projectDir.resolve("src/test/thrift/fixture.thrift"),
+                    Collections.singletonList(
+                            "namespace java com.example.fixture\n" +
+                            "include \"test.thrift\"\n" +
+                            "struct Fixture { 1: test.TestStruct struct }"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        recurse true\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final BuildResult gradle = GradleRunner.create()
+                                               .withProjectDir(projectDir.toFile())
+                                               .withGradleVersion(version)
+                                               .withArguments("compileTestJava")
+                                               .withPluginClasspath()
+                                               .build();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.task(":compileTestThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.task(":compileTestJava").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(projectDir.resolve("build/generated-sources/thrift-test/gen-java")
+                             .resolve("com/example/fixture/Fixture.java")
+        ).exists();
+        // Generated by compileThrift only.
+        assertThat(projectDir.resolve("build/generated-sources/thrift-test/gen-java")
+                             .resolve("com/linecorp/thrift/plugin/test/TestStruct.java")
+        ).doesNotExist();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void skipSourceSetWithoutThriftFiles(String version) throws Exception {
+        copyFile(Paths.get("src/test/resources/test.thrift"), projectDir.resolve("src/main/thrift"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final BuildResult gradle = GradleRunner.create()
+                                               .withProjectDir(projectDir.toFile())
+                                               .withGradleVersion(version)
+                                               .withArguments("compileTestJava")
+                                               .withPluginClasspath()
+                                               .build();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.task(":compileTestThrift").getOutcome()).isEqualTo(TaskOutcome.NO_SOURCE);
+        assertThat(gradle.getOutput()).doesNotContain("Could not find");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void resolveThriftToolchain(String version) throws Exception {
+        copyFile(Paths.get("src/test/resources/test.thrift"), projectDir.resolve("src/main/thrift"));
+        final Path repository = Paths.get("lib/thrift").toAbsolutePath();
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftVersion '0.17.0'\n" +
+                            "        thriftRepository file(\"" + repository + "\")\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final BuildResult gradle = GradleRunner.create()
+                                               .withProjectDir(projectDir.toFile())
+                                               .withGradleVersion(version)
+                                               .withArguments("compileThrift", "--info")
+                                               .withPluginClasspath()
+                                               .build();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+        assertThat(gradle.getOutput()).contains("/caches/thrift-toolchains/");
+        assertThat(projectDir.resolve("build/generated-sources/thrift/gen-java")
+                             .resolve("com/linecorp/thrift/plugin/test/TestStruct.java")
+        ).exists();
+
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftChecksum osdetector.classifier, '0123456789abcdef'\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+        final BuildResult mismatch = GradleRunner.create()
+                                                 .withProjectDir(projectDir.toFile())
+                                                 .withGradleVersion(version)
+                                                 .withArguments("clean", "compileThrift")
+                                                 .withPluginClasspath()
+                                                 .buildAndFail();
+
+        assertThat(mismatch.getOutput()).contains("but 0123456789abcdef is expected.");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void loadFromBuildCache(String version) throws Exception {
+        copyFile(Paths.get("src/test/resources/test.thrift"), projectDir.resolve("src/main/thrift"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+        writeBuildCacheSettings(projectDir);
+
+        final GradleRunner runner = GradleRunner.create()
+                                                .withProjectDir(projectDir.toFile())
+                                                .withGradleVersion(version)
+                                                .withArguments("--build-cache", "clean", "compileThrift")
+                                                .withPluginClasspath();
+        assertThat(runner.build().task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+
+        final BuildResult gradle = runner.build();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.FROM_CACHE);
+        assertThat(projectDir.resolve("build/generated-sources/thrift/gen-java")
+                             .resolve("com/linecorp/thrift/plugin/test/TestStruct.java")
+        ).exists();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void loadFromBuildCacheAfterRelocation(String version) throws Exception {
+        final Path source = Paths.get("src/test/resources/test.thrift");
+        copyFile(source, projectDir.resolve("src/main/thrift"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+        writeBuildCacheSettings(projectDir);
+
+        final BuildResult first = GradleRunner.create()
+                                              .withProjectDir(projectDir.toFile())
+                                              .withGradleVersion(version)
+                                              .withArguments("--build-cache", "compileThrift")
+                                              .withPluginClasspath()
+                                              .build();
+        assertThat(first.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+
+        // Same project in another directory, checked out with different line endings.
+        Files.copy(buildFile, relocatedProjectDir.resolve("build.gradle"));
+        writeBuildCacheSettings(relocatedProjectDir);
+        final Path relocatedSourceDir = relocatedProjectDir.resolve("src/main/thrift");
+        Files.createDirectories(relocatedSourceDir);
+        Files.write(relocatedSourceDir.resolve("test.thrift"),
+                    String.join("\r\n", Files.readAllLines(source)).getBytes(StandardCharsets.UTF_8));
+
+        final BuildResult gradle = GradleRunner.create()
+                                               .withProjectDir(relocatedProjectDir.toFile())
+                                               .withGradleVersion(version)
+                                               .withArguments("--build-cache", "compileThrift")
+                                               .withPluginClasspath()
+                                               .build();
+
+        assertThat(gradle.task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.FROM_CACHE);
+        assertThat(relocatedProjectDir.resolve("build/generated-sources/thrift/gen-java")
+                                      .resolve("com/linecorp/thrift/plugin/test/TestStruct.java")
+        ).exists();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "7.6", "8.0", "8.1" })
+    public void onlyIncludedFilesAreInputs(String version) throws Exception {
+        final Path sourceDir = projectDir.resolve("src/main/thrift");
+        final Path includeDir = projectDir.resolve("include");
+        Files.createDirectories(sourceDir);
+        Files.createDirectories(includeDir);
+        final Path common = includeDir.resolve("common.thrift");
+        Files.write(common, Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "struct Common {\n" +
+                "    1:required i32 num = 0,\n" +
+                "}\n"));
+        final Path unused = includeDir.resolve("unused.thrift");
+        Files.write(unused, Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "struct Unused {\n" +
+                "    1:required i32 num = 0,\n" +
+                "}\n"));
+        Files.write(sourceDir.resolve("direct.thrift"), Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "include \"common.thrift\"\n" +
+                "struct Direct {\n" +
+                "    1:required common.Common common,\n" +
+                "}\n"));
+        Files.write(buildFile,
+                    Collections.singletonList(
+                            "    compileThrift {\n" +
+                            "        thriftExecutable \"" + thriftPathExpression + "\"\n" +
+                            "        includeDirs.from(\"include\")\n" +
+                            "    }\n"),
+                    StandardOpenOption.APPEND);
+
+        final GradleRunner runner = GradleRunner.create()
+                                                .withProjectDir(projectDir.toFile())
+                                                .withGradleVersion(version)
+                                                .withArguments("compileThrift")
+                                                .withPluginClasspath();
+        assertThat(runner.build().task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+
+        Files.write(unused,
+                    Collections.singletonList(
+                            "struct Unused2 {\n" +
+                            "    1:required i32 num = 0,\n" +
+                            "}\n"),
+                    StandardOpenOption.APPEND);
+        Files.write(includeDir.resolve("other.thrift"), Collections.singletonList(
+                "namespace java com.linecorp.thrift.plugin.test\n" +
+                "struct Other {\n" +
+                "    1:required i32 num = 0,\n" +
+                "}\n"));
+        assertThat(runner.build().task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.UP_TO_DATE);
+
+        Files.write(common,
+                    Collections.singletonList(
+                            "struct Common2 {\n" +
+                            "    1:required i32 num = 0,\n" +
+                            "}\n"),
+                    StandardOpenOption.APPEND);
+        assertThat(runner.build().task(":compileThrift").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+    }
+
+    private void writeBuildCacheSettings(Path dir) throws IOException {
+        Files.write(dir.resolve("settings.gradle"),
+                    Collections.singletonList(
+                            "    buildCache {\n" +
+                            "        local {\n" +
+                            "            directory = new File(\"" + buildCacheDir.toAbsolutePath() + "\")\n" +
+                            "        }\n" +
+                            "    }\n"));
+    }
+
     private Path copyFile(Path source, Path targetDirectory) throws IOException {
         Files.createDirectories(targetDirectory);
         return Files.copy(source, targetDirectory.resolve(source.getFileName()));